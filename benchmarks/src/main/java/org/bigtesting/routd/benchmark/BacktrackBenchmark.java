@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bigtesting.routd.Route;
+import org.bigtesting.routd.Router;
+import org.bigtesting.routd.TreeRouter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of a search that can backtrack. The firstChoice paths
+ * are found by the first candidate for each of their elements, as most
+ * paths are, so with a maxBacktracks of 0 they show whether the common 
+ * path pays for backtracking. The deadEnd paths lead into a static branch
+ * that does not match their last element, and are only found by going
+ * back to a named parameter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BacktrackBenchmark {
+
+    private static final int RESOURCES = 50;
+
+    @Param({"tree", "frozen"})
+    public String router;
+
+    @Param({"0", "256"})
+    public int maxBacktracks;
+
+    Router target;
+    String[] firstChoicePaths;
+    String[] deadEndPaths;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        TreeRouter tree = new TreeRouter();
+        for (int r = 0; r < RESOURCES; r++) {
+            tree.add(new Route("/api/resource" + r + "/all/summary"));
+            tree.add(new Route("/api/resource" + r + "/:id/details"));
+            tree.add(new Route("/api/resource" + r + "/:id/:view<[a-z]+>/:page<[0-9]+>"));
+        }
+        tree.setMaxBacktracks(maxBacktracks);
+        target = router.equals("frozen") ? tree.freeze() : tree;
+
+        firstChoicePaths = new String[RESOURCES];
+        deadEndPaths = new String[RESOURCES];
+        for (int r = 0; r < RESOURCES; r++) {
+            firstChoicePaths[r] = "/api/resource" + r + "/" + (1000 + r) + "/details";
+            deadEndPaths[r] = "/api/resource" + r + "/all/details";
+        }
+    }
+
+    @Benchmark
+    public Route firstChoice() {
+
+        next = (next + 1) % RESOURCES;
+        return target.route(firstChoicePaths[next]);
+    }
+
+    @Benchmark
+    public Route deadEnd() {
+
+        next = (next + 1) % RESOURCES;
+        return target.route(deadEndPaths[next]);
+    }
+}
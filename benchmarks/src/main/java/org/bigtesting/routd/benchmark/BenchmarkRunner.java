@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so that allocations per
+ * operation are reported along with throughput and average time. Unless
+ * a thread count is given with -t, each benchmark is run with a single
+ * thread and with a thread per available processor. Any other standard
+ * JMH options may be given, such as a benchmark regex, or -p to restrict
+ * parameters (e.g. -p routeCount=1000 -p router=tree).
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.getThreads().hasValue()) {
+            run(commandLine, commandLine.getThreads().get());
+            return;
+        }
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        run(commandLine, 1);
+        if (processors > 1) {
+            run(commandLine, processors);
+        }
+    }
+
+    private static void run(CommandLineOptions commandLine, int threads) throws Exception {
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .threads(threads);
+        new Runner(options.build()).run();
+    }
+}
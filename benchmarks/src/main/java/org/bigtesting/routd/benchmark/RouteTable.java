@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bigtesting.routd.Route;
+
+/**
+ * A generated route table, and paths to route against it. The table
+ * holds routes of every shape; the paths are of a single shape, and
+ * a given fraction of them match a route in the table.
+ */
+public class RouteTable {
+
+    public enum Shape {
+
+        STATIC {
+            String route(int i) { return "/static/s" + i + "/page"; }
+            String path(int i) { return "/static/s" + i + "/page"; }
+        },
+        NAMED {
+            String route(int i) { return "/named/n" + i + "/:name"; }
+            String path(int i) { return "/named/n" + i + "/john"; }
+        },
+        REGEX {
+            String route(int i) { return "/regex/r" + i + "/:id<[0-9]+>"; }
+            String path(int i) { return "/regex/r" + i + "/12345"; }
+        },
+        VERSION {
+            String route(int i) { return "/version/v" + i + "/:version<v[0-9]+(\\.[0-9]+)*>"; }
+            String path(int i) { return "/version/v" + i + "/v2.10"; }
+        },
+        SPLAT {
+            String route(int i) { return "/splat/p" + i + "/*"; }
+            String path(int i) { return "/splat/p" + i + "/a/b/c"; }
+        },
+        TRAILING_SLASH {
+            String route(int i) { return "/trailing/t" + i + "/"; }
+            String path(int i) { return "/trailing/t" + i + "/"; }
+        },
+        ENCODED {
+            String route(int i) { return "/encoded/e" + i + "/:name"; }
+            String path(int i) { return "/encoded/e" + i + "/john%20doe%2Fjr"; }
+        };
+
+        abstract String route(int i);
+
+        /* a path matching the route with the same index */
+        abstract String path(int i);
+    }
+
+    private static final int PATH_COUNT = 1024;
+
+    private final List<Route> routes;
+    private final String[] paths;
+
+    public RouteTable(int routeCount, Shape shape, double hitRatio) {
+
+        Shape[] shapes = Shape.values();
+        routes = new ArrayList<Route>(routeCount);
+        for (int i = 0; i < routeCount; i++) {
+            routes.add(new Route(shapes[i % shapes.length].route(i / shapes.length)));
+        }
+
+        /* the number of routes of the given shape in the table */
+        int shapeCount = (routeCount - shape.ordinal() + shapes.length - 1) / shapes.length;
+
+        Random random = new Random(42);
+        paths = new String[PATH_COUNT];
+        for (int i = 0; i < PATH_COUNT; i++) {
+
+            boolean hit = shapeCount > 0 && random.nextDouble() < hitRatio;
+            int index = hit ? random.nextInt(shapeCount) : shapeCount + random.nextInt(routeCount + 1);
+            paths[i] = shape.path(index);
+        }
+    }
+
+    public List<Route> routes() {
+        return routes;
+    }
+
+    public String path(int i) {
+        return paths[i & (PATH_COUNT - 1)];
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bigtesting.routd.CombinedRegexRouter;
+import org.bigtesting.routd.FrozenRouter;
+import org.bigtesting.routd.RegexRouter;
+import org.bigtesting.routd.Route;
+import org.bigtesting.routd.RouteMatch;
+import org.bigtesting.routd.Router;
+import org.bigtesting.routd.TreeRouter;
+import org.bigtesting.routd.benchmark.RouteTable.Shape;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures routing against route tables of different sizes, with
+ * paths of different shapes, some fraction of which match no route.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Table {
+
+        @Param({"tree", "frozen", "regex", "combined"})
+        public String router;
+
+        @Param({"10", "1000", "100000"})
+        public int routeCount;
+
+        @Param({"STATIC", "NAMED", "REGEX", "VERSION", "SPLAT", "TRAILING_SLASH", "ENCODED"})
+        public Shape shape;
+
+        @Param({"1.0", "0.5", "0.0"})
+        public double hitRatio;
+
+        Router instance;
+        RouteTable table;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+
+            table = new RouteTable(routeCount, shape, hitRatio);
+            instance = newRouter(router, table);
+        }
+    }
+
+    /* each thread walks through the paths on its own */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next;
+    }
+
+    @Benchmark
+    public Route route(Table t, Cursor c) {
+
+        return t.instance.route(t.table.path(c.next++));
+    }
+
+    @Benchmark
+    public RouteMatch match(Table t, Cursor c) {
+
+        return t.instance.match(t.table.path(c.next++));
+    }
+
+    static Router newRouter(String name, RouteTable table) {
+
+        if (name.equals("frozen")) {
+            return new FrozenRouter(table.routes());
+        }
+        Router router;
+        if (name.equals("regex")) {
+            router = new RegexRouter();
+        } else if (name.equals("combined")) {
+            router = new CombinedRegexRouter();
+        } else {
+            router = new TreeRouter();
+        }
+        for (Route route : table.routes()) {
+            router.add(route);
+        }
+        return router;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bigtesting.routd.Route;
+import org.bigtesting.routd.SnapshotRouter;
+import org.bigtesting.routd.TreeRouter;
+import org.bigtesting.routd.benchmark.RouteTable.Shape;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to get from a route table to a router that has
+ * routed its first path: by building a TreeRouter from the routes'
+ * paths, or by loading a snapshot of the TreeRouter from a file.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int routeCount;
+
+    private List<String> paths;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        RouteTable table = new RouteTable(routeCount, Shape.STATIC, 1.0);
+        TreeRouter router = new TreeRouter();
+        paths = new ArrayList<String>(routeCount);
+        for (Route route : table.routes()) {
+            router.add(route);
+            paths.add(route.getResourcePath());
+        }
+        file = File.createTempFile("routes", ".snapshot");
+        SnapshotRouter.write(router, file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+
+        file.delete();
+    }
+
+    @Benchmark
+    public Route build() {
+
+        TreeRouter router = new TreeRouter();
+        for (String path : paths) {
+            router.add(new Route(path));
+        }
+        return router.route("/static/s1/page");
+    }
+
+    @Benchmark
+    public Route load() throws IOException {
+
+        return new SnapshotRouter(file).route("/static/s1/page");
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view of a region of ASCII bytes in a ByteBuffer as a CharSequence,
+ * so that paths held as bytes can be routed without first decoding them
+ * into a String. The buffer's position and limit are never changed.
+ */
+final class ByteSequence implements CharSequence {
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    ByteSequence() {}
+
+    private ByteSequence(ByteBuffer buffer, int offset, int length) {
+
+        wrap(buffer, offset, length);
+    }
+
+    /**
+     * Returns whether all the bytes in the given region of 
+     * the buffer are ASCII.
+     */
+    static boolean isAscii(ByteBuffer buffer, int offset, int length) {
+
+        for (int i = offset; i < offset + length; i++) {
+            if (buffer.get(i) < 0) return false;
+        }
+        return true;
+    }
+
+    ByteSequence wrap(ByteBuffer buffer, int offset, int length) {
+
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    void clear() {
+
+        buffer = null;
+    }
+
+    public int length() {
+
+        return length;
+    }
+
+    public char charAt(int index) {
+
+        return (char)buffer.get(offset + index);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+
+        return new ByteSequence(buffer, offset + start, end - start);
+    }
+
+    public String toString() {
+
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char)buffer.get(offset + i);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A Router that remembers the results of routing paths with another
+ * Router, keyed by the raw path. The cache is bounded, and is split into
+ * independently locked segments so that concurrent lookups of different
+ * paths rarely contend. All cached results are discarded when a route
+ * is added, removed or replaced.
+ * <p>
+ * With the LRU policy, the least recently used path is evicted when the
+ * cache is full. With the TINY_LFU policy, a new path is first held in a
+ * small LRU window, and only displaces a path in the main cache if it has
+ * been seen more often recently, so that a burst of paths that are seen
+ * only once, such as paths with high-cardinality parameters, cannot
+ * flush the frequently requested ones.
+ */
+public class CachingRouter implements Router {
+
+    public enum Policy { LRU, TINY_LFU }
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    /* the size of a segment, below which the cache is not split further */
+    private static final int MIN_SEGMENT_SIZE = 64;
+    private static final int MAX_SEGMENTS = 16;
+
+    /* cached in place of a null result */
+    private static final RouteMatch NO_MATCH = new RouteMatch(null, new String[0], new String[0]);
+
+    private final Router router;
+    private final Segment[] segments;
+
+    /* advanced whenever the routes change; entries from earlier generations are stale */
+    private volatile long generation;
+
+    public CachingRouter(Router router) {
+
+        this(router, DEFAULT_MAXIMUM_SIZE, Policy.TINY_LFU);
+    }
+
+    public CachingRouter(Router router, int maximumSize, Policy policy) {
+
+        if (router == null) throw new IllegalArgumentException("router cannot be null");
+        if (maximumSize < 1) throw new IllegalArgumentException("maximum size must be positive");
+        if (policy == null) throw new IllegalArgumentException("policy cannot be null");
+
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && maximumSize / (segmentCount * 2) >= MIN_SEGMENT_SIZE) {
+            segmentCount *= 2;
+        }
+
+        this.router = router;
+        this.segments = new Segment[segmentCount];
+        int segmentSize = (maximumSize + segmentCount - 1) / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentSize, policy);
+        }
+    }
+
+    public synchronized void add(Route route) {
+
+        router.add(route);
+        invalidate();
+    }
+
+    public synchronized boolean remove(Route route) {
+
+        boolean removed = router.remove(route);
+        if (removed) invalidate();
+        return removed;
+    }
+
+    public synchronized boolean replace(Route route, Route replacement) {
+
+        boolean replaced = router.replace(route, replacement);
+        if (replaced) invalidate();
+        return replaced;
+    }
+
+    private void invalidate() {
+
+        generation++;
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public Route route(String path) {
+
+        RouteMatch match = lookup(path);
+        return match == null ? null : match.getRoute();
+    }
+
+    public RouteMatch match(String path) {
+
+        return lookup(path);
+    }
+
+    private RouteMatch lookup(String path) {
+
+        if (path == null) throw new IllegalArgumentException("path cannot be null");
+
+        Segment segment = segmentFor(path);
+        long generation = this.generation;
+        RouteMatch match = segment.get(path, generation);
+        if (match != null) {
+            return match == NO_MATCH ? null : match;
+        }
+
+        match = router.match(path);
+        segment.put(path, match == null ? NO_MATCH : match, generation);
+        return match;
+    }
+
+    private Segment segmentFor(String path) {
+
+        int h = path.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    public long getHitCount() {
+
+        long count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.hits;
+            }
+        }
+        return count;
+    }
+
+    public long getMissCount() {
+
+        long count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.misses;
+            }
+        }
+        return count;
+    }
+
+    public long getEvictionCount() {
+
+        long count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.evictions;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of paths currently cached.
+     */
+    public int size() {
+
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.window.size() + segment.main.size();
+            }
+        }
+        return size;
+    }
+
+    private static final class Entry {
+
+        final RouteMatch match;
+        final long generation;
+
+        Entry(RouteMatch match, long generation) {
+            this.match = match;
+            this.generation = generation;
+        }
+    }
+
+    private static final class Segment {
+
+        /* new entries, for TINY_LFU; unused for LRU */
+        final LinkedHashMap<String, Entry> window =
+                new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        final LinkedHashMap<String, Entry> main =
+                new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+        final int windowCapacity;
+        final int mainCapacity;
+
+        /* null for LRU */
+        final FrequencySketch sketch;
+
+        long hits;
+        long misses;
+        long evictions;
+
+        Segment(int capacity, Policy policy) {
+
+            if (policy == Policy.TINY_LFU && capacity > 1) {
+                windowCapacity = Math.max(1, capacity / 100);
+                mainCapacity = capacity - windowCapacity;
+                sketch = new FrequencySketch(capacity);
+            } else {
+                windowCapacity = 0;
+                mainCapacity = capacity;
+                sketch = null;
+            }
+        }
+
+        synchronized RouteMatch get(String path, long generation) {
+
+            if (sketch != null) sketch.increment(path);
+
+            Entry entry = main.get(path);
+            if (entry == null && windowCapacity > 0) entry = window.get(path);
+            if (entry == null || entry.generation != generation) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return entry.match;
+        }
+
+        synchronized void put(String path, RouteMatch match, long generation) {
+
+            Entry entry = new Entry(match, generation);
+            if (windowCapacity == 0) {
+                main.put(path, entry);
+                if (main.size() > mainCapacity) {
+                    removeEldest(main);
+                    evictions++;
+                }
+                return;
+            }
+
+            if (main.containsKey(path)) {
+                main.put(path, entry);
+                return;
+            }
+            window.put(path, entry);
+            if (window.size() <= windowCapacity) return;
+
+            /* the entry leaving the window competes with the main cache's eldest entry */
+            Map.Entry<String, Entry> candidate = removeEldest(window);
+            if (main.size() < mainCapacity) {
+                main.put(candidate.getKey(), candidate.getValue());
+                return;
+            }
+            String victim = main.keySet().iterator().next();
+            if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim)) {
+                main.remove(victim);
+                main.put(candidate.getKey(), candidate.getValue());
+            }
+            evictions++;
+        }
+
+        synchronized void clear() {
+
+            window.clear();
+            main.clear();
+        }
+
+        private static Map.Entry<String, Entry> removeEldest(LinkedHashMap<String, Entry> map) {
+
+            Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+            Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            return eldest;
+        }
+    }
+
+    /*
+     * a count-min sketch of how often each path has been looked up
+     * recently; counts are halved periodically, so that old popularity
+     * fades
+     */
+    private static final class FrequencySketch {
+
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final int[] table;
+        private final int mask;
+        private final int resetSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+
+            /* wide enough that paths seen once rarely share all their counters */
+            int width = 64;
+            while (width < capacity * 8) width *= 2;
+            table = new int[width * DEPTH];
+            mask = width - 1;
+            resetSize = capacity * 10;
+        }
+
+        void increment(String key) {
+
+            int h = key.hashCode();
+            boolean added = false;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = indexOf(h, i);
+                if (table[index] < MAX_COUNT) {
+                    table[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions == resetSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] >>>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(String key) {
+
+            int h = key.hashCode();
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                frequency = Math.min(frequency, table[indexOf(h, i)]);
+            }
+            return frequency;
+        }
+
+        private int indexOf(int h, int row) {
+
+            h *= SEEDS[row];
+            h ^= (h >>> 17);
+            return row * (mask + 1) + (h & mask);
+        }
+    }
+}
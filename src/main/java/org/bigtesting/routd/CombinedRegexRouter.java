@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import static org.bigtesting.routd.RouteHelper.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A Router that routes paths in the same way as the RegexRouter, but
+ * rather than evaluating the regex of each route in turn, it evaluates
+ * combined regexes: the routes are grouped by the literal first element
+ * of their path, and the regexes of each group are merged into regexes
+ * with an alternative for each route, in the order of precedence defined
+ * by the RegexRouteComparator. A path is then only matched against the
+ * routes that could match its first element, and the routes whose first
+ * element is a parameter.
+ * <p>
+ * The combined regexes are compiled when routing, after routes have been
+ * added, so this Router is best suited to route tables that are built
+ * once.
+ */
+public class CombinedRegexRouter implements Router {
+
+    /*
+     * the most routes merged into a single regex; a matcher holds the
+     * offsets of every group in its regex, so regexes with too many
+     * alternatives would be costly to match
+     */
+    private static final int MAX_ALTERNATIVES = 64;
+
+    private final Set<RegexRoute> routes =
+            new ConcurrentSkipListSet<RegexRoute>(new RegexRouteComparator());
+
+    /* null if routes have been added since it was last compiled */
+    private volatile Dispatch dispatch;
+
+    private final NamedParameterRanks ranks = new NamedParameterRanks();
+
+    public synchronized void add(Route route) {
+
+        RegexRoute regexRoute = new RegexRoute(route, ranks.of(route));
+        if (routes.add(regexRoute)) ranks.add(route, regexRoute.ranks);
+        dispatch = null;
+    }
+
+    public synchronized boolean remove(Route route) {
+
+        if (!routes.remove(new RegexRoute(route, ranks.of(route)))) return false;
+        ranks.remove(route);
+        dispatch = null;
+        return true;
+    }
+
+    /*
+     * routes are only compiled with this lock held, so lookups see the
+     * routes from before the replacement until it is complete
+     */
+    public synchronized boolean replace(Route route, Route replacement) {
+
+        if (replacement == null) throw new IllegalArgumentException("replacement cannot be null");
+
+        if (!routes.contains(new RegexRoute(route, ranks.of(route)))) return false;
+
+        /* the replacement is added first, as it would be to a TreeRouter, unless it takes the route's place */
+        if (replacement.equals(route)) {
+            remove(route);
+            add(replacement);
+        } else {
+            add(replacement);
+            remove(route);
+        }
+        return true;
+    }
+
+    /**
+     * Returns a Route that matches the given URL path.
+     * Note that the path is expected to be an undecoded URL path.
+     * The router will handle any decoding that might be required.
+     *
+     *  @param path an undecoded URL path
+     *  @return the matching route, or null if none is found
+     */
+    public Route route(String path) {
+
+        path = urlDecodeForRouting(path);
+
+        Dispatch dispatch = this.dispatch;
+        if (dispatch == null) dispatch = compile();
+
+        for (Alternatives alternatives : dispatch.candidates(path)) {
+            Route route = alternatives.match(path);
+            if (route != null) return route;
+        }
+        return null;
+    }
+
+    public RouteMatch match(String path) {
+
+        Route route = route(path);
+        return route == null ? null : new RouteMatch(route, path);
+    }
+
+    private synchronized Dispatch compile() {
+
+        if (dispatch != null) return dispatch;
+
+        /* the routes whose first element is a parameter, which are candidates for any path */
+        List<RegexRoute> anyPath = new ArrayList<RegexRoute>();
+        Map<String, List<RegexRoute>> byFirstElement = new HashMap<String, List<RegexRoute>>();
+
+        for (RegexRoute route : routes) {
+
+            String first = firstElement(route.getRoute());
+            if (first == null) {
+
+                anyPath.add(route);
+                for (List<RegexRoute> group : byFirstElement.values()) {
+                    group.add(route);
+                }
+
+            } else {
+
+                List<RegexRoute> group = byFirstElement.get(first);
+                if (group == null) {
+                    group = new ArrayList<RegexRoute>(anyPath);
+                    byFirstElement.put(first, group);
+                }
+                group.add(route);
+            }
+        }
+
+        Map<String, Alternatives[]> groups = new HashMap<String, Alternatives[]>();
+        for (Map.Entry<String, List<RegexRoute>> entry : byFirstElement.entrySet()) {
+            groups.put(entry.getKey(), combine(entry.getValue()));
+        }
+        dispatch = new Dispatch(groups, combine(anyPath));
+        return dispatch;
+    }
+
+    /*
+     * returns the literal first element of the route's path, the empty
+     * string for the root route, or null if the first element is a parameter
+     */
+    private static String firstElement(Route route) {
+
+        if (!route.hasPathElements()) return "";
+        PathElement first = route.getPathElements().get(0);
+        return first instanceof StaticPathElement ? first.name() : null;
+    }
+
+    private static Alternatives[] combine(List<RegexRoute> routes) {
+
+        List<Alternatives> combined = new ArrayList<Alternatives>();
+        int start = 0;
+        for (int i = 0; i <= routes.size(); i++) {
+
+            /* a route with back references is matched on its own, as they'd refer to the wrong groups */
+            boolean alone = i < routes.size() && hasBackReference(routes.get(i).pattern().pattern());
+            if (i == routes.size() || alone || i - start == MAX_ALTERNATIVES) {
+                if (i > start) combined.add(new Alternatives(routes.subList(start, i)));
+                start = i;
+            }
+            if (alone) {
+                combined.add(new Alternatives(routes.subList(i, i + 1)));
+                start = i + 1;
+            }
+        }
+        return combined.toArray(new Alternatives[combined.size()]);
+    }
+
+    private static final class Dispatch {
+
+        private final Map<String, Alternatives[]> groups;
+        private final Alternatives[] anyPath;
+
+        Dispatch(Map<String, Alternatives[]> groups, Alternatives[] anyPath) {
+
+            this.groups = groups;
+            this.anyPath = anyPath;
+        }
+
+        Alternatives[] candidates(String path) {
+
+            if (!path.startsWith(PATH_ELEMENT_SEPARATOR)) return anyPath;
+            int end = path.indexOf('/', 1);
+            String first = path.substring(1, end == -1 ? path.length() : end);
+            Alternatives[] group = groups.get(first);
+            return group != null ? group : anyPath;
+        }
+    }
+
+    /*
+     * a regex with an alternative for each of a list of routes
+     */
+    private static final class Alternatives {
+
+        private final Route[] routes;
+        private final Pattern pattern;
+        private final ThreadMatcher matcher;
+        /* the group around each route's alternative */
+        private final int[] groups;
+
+        Alternatives(List<RegexRoute> regexRoutes) {
+
+            routes = new Route[regexRoutes.size()];
+            groups = new int[regexRoutes.size()];
+
+            if (regexRoutes.size() == 1) {
+                routes[0] = regexRoutes.get(0).getRoute();
+                pattern = regexRoutes.get(0).pattern();
+                matcher = new ThreadMatcher(pattern);
+                return;
+            }
+
+            StringBuilder sb = new StringBuilder("^(?:");
+            int group = 1;
+            for (int i = 0; i < routes.length; i++) {
+
+                RegexRoute route = regexRoutes.get(i);
+                String regex = route.pattern().pattern();
+                /* each route's regex is anchored at both ends */
+                regex = regex.substring(1, regex.length() - 1);
+
+                if (i > 0) sb.append('|');
+                sb.append('(').append(regex).append(')');
+                routes[i] = route.getRoute();
+                groups[i] = group;
+                group += 1 + route.pattern().matcher("").groupCount();
+            }
+            sb.append(")$");
+            pattern = Pattern.compile(sb.toString());
+            matcher = new ThreadMatcher(pattern);
+        }
+
+        Route match(String path) {
+
+            Matcher m = matcher.reset(path);
+            if (!m.lookingAt()) return null;
+            if (routes.length == 1) return routes[0];
+            for (int i = 0; i < groups.length; i++) {
+                if (m.start(groups[i]) != -1) return routes[i];
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,591 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import static org.bigtesting.routd.RouteHelper.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable Router, compiled from a finished route table. It routes
+ * paths in the same way as the TreeRouter it is built from, but its
+ * tree is compact: the children of each node are held in flat arrays,
+ * runs of static segments that don't branch are collapsed into a single
+ * edge, equal segments and regexes are shared between nodes, and the
+ * regexes of sibling named parameters are merged into a single regex
+ * where possible. Routes cannot be added to it once it is built.
+ */
+public class FrozenRouter implements MethodRouter {
+
+    private final Node root;
+    
+    private final int maxBacktracks;
+
+    public FrozenRouter(Collection<Route> routes) {
+
+        this(treeOf(routes));
+    }
+
+    public FrozenRouter(TreeRouter router) {
+
+        TreeNode treeRoot = router.getRoot();
+        this.root = treeRoot == null ? null : new Compiler().compile(treeRoot);
+        this.maxBacktracks = router.getMaxBacktracks();
+    }
+
+    private static TreeRouter treeOf(Collection<Route> routes) {
+
+        TreeRouter router = new TreeRouter();
+        for (Route route : routes) {
+            router.add(route);
+        }
+        return router;
+    }
+
+    public void add(Route route) {
+
+        throw new UnsupportedOperationException("routes cannot be added to a frozen router");
+    }
+
+    public void add(String method, Route route) {
+
+        throw new UnsupportedOperationException("routes cannot be added to a frozen router");
+    }
+
+    public boolean remove(Route route) {
+
+        throw new UnsupportedOperationException("routes cannot be removed from a frozen router");
+    }
+
+    public boolean replace(Route route, Route replacement) {
+
+        throw new UnsupportedOperationException("routes cannot be replaced in a frozen router");
+    }
+
+    /**
+     * Returns a Route that matches the given URL path.
+     * Note that the path is expected to be an undecoded URL path.
+     * The router will handle any decoding that might be required.
+     *
+     *  @param path an undecoded URL path
+     *  @return the matching route, or null if none is found
+     */
+    public Route route(String path) {
+
+        return route(PathSearch.begin(path));
+    }
+
+    /**
+     * Returns a Route that matches the given URL path, held in any
+     * CharSequence, which is searched in place.
+     */
+    public Route route(CharSequence path) {
+
+        return route(PathSearch.begin(path));
+    }
+
+    /**
+     * Returns a Route that matches the URL path held in the given region
+     * of the buffer, as ASCII or UTF-8 bytes (see 
+     * {@link TreeRouter#route(ByteBuffer, int, int)}).
+     */
+    public Route route(ByteBuffer buffer, int offset, int length) {
+
+        return route(PathSearch.begin(buffer, offset, length));
+    }
+
+    private Route route(PathSearch search) {
+
+        try {
+            Node node = search(search);
+            return node == null ? null : node.route;
+        } finally {
+            search.clear();
+        }
+    }
+
+    public RouteMatch match(String path) {
+
+        return match(PathSearch.begin(path));
+    }
+
+    public RouteMatch match(CharSequence path) {
+
+        return match(PathSearch.begin(path));
+    }
+
+    public RouteMatch match(ByteBuffer buffer, int offset, int length) {
+
+        return match(PathSearch.begin(buffer, offset, length));
+    }
+
+    private RouteMatch match(PathSearch search) {
+
+        try {
+            Node node = search(search);
+            if (node == null || node.route == null) return null;
+            return search.newMatch(node.route);
+        } finally {
+            search.clear();
+        }
+    }
+
+    public Route route(String method, String path) {
+
+        PathSearch search = PathSearch.begin(path);
+        try {
+            Node node = search(search);
+            return node == null ? null : node.route(method);
+        } finally {
+            search.clear();
+        }
+    }
+
+    public RouteMatch match(String method, String path) {
+
+        PathSearch search = PathSearch.begin(path);
+        try {
+            Node node = search(search);
+            if (node == null || node.route == null) return null;
+            Route route = node.route(method);
+            boolean methodAllowed = route != null;
+            return search.newMatch(methodAllowed ? route : node.route,
+                    methodAllowed, node.methods.allowed());
+        } finally {
+            search.clear();
+        }
+    }
+
+    /*
+     * the same search as the TreeRouter's
+     */
+    private Node search(PathSearch search) {
+
+        if (root == null) return null;
+
+        PathTokenizer tokens = search.tokens;
+
+        /* handle the case where path is '/' and route '/*' exists */
+        if (tokens.size() == 0 && root.splats.length > 0 && root.route == null) {
+            search.captureSplat(0, true);
+            return root.splats[0];
+        }
+
+        Node currentNode = root;
+        search.reach(0, root);
+        int i = 0;
+        int from = 0;
+        while (i < tokens.size()) {
+
+            Node next = choose(search, currentNode, i, from);
+            if (next == null) {
+
+                /*
+                 * a dead end: go back to the token the previous candidate
+                 *   was chosen for, and try the next candidate for it
+                 */
+                if (i == 0) return null;
+                int k = i - 1;
+                while (search.children(k) == null) k--;
+                
+                /*
+                 * the TreeRouter goes back through the nodes of an edge one at
+                 *   a time, so going back past an edge counts a backtrack for each
+                 */
+                if (search.backtracks + i - k > maxBacktracks) {
+                    search.backtracks = maxBacktracks;
+                    return null;
+                }
+                Node parent = (Node)search.children(k);
+                int candidate = search.candidate(k);
+                search.backtrack(k);
+                search.backtracks += i - k - 1;
+
+                /* a splat that has a route can instead match the rest of the path */
+                if (candidate < parent.splats.length && parent.splats[candidate].route != null) {
+                    search.captureSplat(k, true);
+                    return parent.splats[candidate];
+                }
+                currentNode = parent;
+                i = k;
+                from = candidate + 1;
+                continue;
+            }
+
+            if (search.candidate(i) < currentNode.splats.length) {
+
+                boolean endsRoute = !next.hasChildren;
+                search.captureSplat(i, endsRoute);
+                if (endsRoute) return next;
+            }
+            /* a named child has no edge, and has captured its token when it was chosen */
+            i += 1 + next.edge.length;
+            search.reach(i, next);
+            currentNode = next;
+            from = 0;
+        }
+
+        return currentNode;
+    }
+
+    /*
+     * Returns the first child of the node, from the given candidate on,
+     * that matches the token at the given index, and records it as the
+     * search's choice. The candidates are numbered as the TreeNode's are:
+     * the splat children, then the static children named by the token, 
+     * then the named children.
+     */
+    private Node choose(PathSearch search, Node node, int i, int from) {
+
+        PathTokenizer tokens = search.tokens;
+
+        /*
+         * if there are no more tokens to process after this one,
+         *   only a candidate that has a route can match
+         */
+        boolean lastToken = i == tokens.size() - 1;
+        int splats = node.splats.length;
+
+        int candidate = from;
+        for (; candidate < splats; candidate++) {
+
+            Node splat = node.splats[candidate];
+            if ((!lastToken || splat.route != null) && SegmentMatcher.SPLAT.matches(tokens, i)) {
+                search.choose(i, node, candidate);
+                return splat;
+            }
+        }
+
+        Node[] staticNodes = node.statics.get(tokens.source(i), tokens.start(i), tokens.end(i));
+        int statics = staticNodes == null ? 0 : staticNodes.length;
+        for (; candidate < splats + statics; candidate++) {
+
+            Node next = staticNodes[candidate - splats];
+            if (lastToken && (next.edge.length > 0 || next.route == null)) continue;
+
+            /*
+             * the nodes within an edge have no route and no other children,
+             *   so once its first segment matches, the rest of it must match
+             */
+            int entered = edgeEntered(next, tokens, i);
+            if (entered == 0) {
+                search.choose(i, node, candidate);
+                return next;
+            }
+
+            /*
+             * the TreeRouter enters the nodes of the edge up to the segment 
+             *   that does not match, and backtracks out of each of them
+             */
+            if (search.backtracks + entered > maxBacktracks) {
+                search.backtracks = maxBacktracks;
+                return null;
+            }
+            search.backtracks += entered;
+        }
+
+        NamedChildren named = lastToken ? node.namedWithRoute : node.named;
+        int j = named.first(tokens, i, candidate - splats - statics);
+        if (j == -1) return null;
+        search.choose(i, node, splats + statics + j);
+        search.captureNamed(i);
+        return named.nodes[j];
+    }
+
+    /*
+     * Returns 0 if the static node matches the tokens after the one at the
+     * given index, which is not the last; otherwise, the number of nodes of
+     * its edge, counting the first, that the TreeRouter would enter before 
+     * reaching a segment that does not match.
+     */
+    private static int edgeEntered(Node node, PathTokenizer tokens, int index) {
+
+        String[] edge = node.edge;
+        for (int j = 0; j < edge.length; j++) {
+
+            String segment = edge[j];
+            int i = index + 1 + j;
+            int start = tokens.start(i);
+            if (tokens.end(i) - start != segment.length() ||
+                    !PathTokenizer.regionMatches(segment, 0, tokens.source(i), start, segment.length())) {
+                return j + 1;
+            }
+            /* only a node with a route can match the last token */
+            if (i == tokens.size() - 1 && (j < edge.length - 1 || node.route == null)) {
+                return j + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static final class Node {
+
+        private static final Node[] NONE = new Node[0];
+        private static final String[] NO_EDGE = new String[0];
+        private static final SegmentTable<Node[]> NO_STATICS = new SegmentTable<Node[]>();
+
+        /* the route added for any method, or else for the first method */
+        final Route route;
+        final Route anyMethodRoute;
+        final MethodTable methods;
+        final boolean hasChildren;
+
+        /*
+         * for a node reached through a run of static segments, the
+         * segments of the run after the first, which keys the node
+         */
+        final String[] edge;
+
+        /* the children, by kind, each in order of precedence */
+        final Node[] splats;
+        final SegmentTable<Node[]> statics;
+        final NamedChildren named;
+
+        /* the named children that have a route */
+        final NamedChildren namedWithRoute;
+
+        Node(TreeNode treeNode, String[] edge, Node[] splats, SegmentTable<Node[]> statics,
+                NamedChildren named, NamedChildren namedWithRoute) {
+
+            this.route = treeNode.getRoute();
+            this.anyMethodRoute = treeNode.getAnyMethodRoute();
+            this.methods = treeNode.getMethodTable();
+            this.edge = edge;
+            this.splats = splats;
+            this.statics = statics;
+            this.named = named;
+            this.namedWithRoute = namedWithRoute;
+            this.hasChildren = splats.length > 0 || statics.size() > 0 || named.nodes.length > 0;
+        }
+
+        Route route(String method) {
+
+            Route route = methods.get(method);
+            return route != null ? route : anyMethodRoute;
+        }
+    }
+
+    private static final class NamedChildren {
+
+        private static final NamedChildren NONE =
+                new NamedChildren(Node.NONE, new SegmentMatcher[0], null, null);
+
+        final Node[] nodes;
+
+        /* the matcher of each node */
+        final SegmentMatcher[] matchers;
+
+        /*
+         * a single regex, with an alternative for each node, in order of
+         * precedence, along with the group of each alternative; the regex
+         * is null if the nodes' regexes could not be merged, or if too few
+         * of the nodes need a regex for merging them to be worthwhile
+         */
+        final Pattern merged;
+        final ThreadMatcher mergedMatcher;
+        final int[] groups;
+
+        NamedChildren(Node[] nodes, SegmentMatcher[] matchers, Pattern merged, int[] groups) {
+
+            this.nodes = nodes;
+            this.matchers = matchers;
+            this.merged = merged;
+            this.mergedMatcher = merged == null ? null : new ThreadMatcher(merged);
+            this.groups = groups;
+        }
+
+        /*
+         * Returns the index of the first node, from the given one on, that
+         * matches the token, or -1 if there is none.
+         */
+        int first(PathTokenizer tokens, int index, int from) {
+
+            if (merged == null || from > 0) {
+
+                for (int i = from; i < nodes.length; i++) {
+                    if (matchers[i].matches(tokens, index)) return i;
+                }
+                return -1;
+            }
+
+            /* a first node that needs no regex is tried on its own */
+            if (!matchers[0].isRegex() && matchers[0].matches(tokens, index)) {
+                return 0;
+            }
+
+            Matcher m = mergedMatcher.reset(tokens.source(index)).region(tokens.start(index), tokens.end(index));
+            if (!m.lookingAt()) return -1;
+            for (int i = 0; i < groups.length; i++) {
+                if (m.start(groups[i]) != -1) return i;
+            }
+            return -1;
+        }
+    }
+
+    /*
+     * compiles a tree of TreeNodes, sharing equal segments and regexes
+     */
+    private static final class Compiler {
+
+        private final Map<String, String> segments = new HashMap<String, String>();
+        private final Map<String, Pattern> patterns = new HashMap<String, Pattern>();
+
+        Node compile(TreeNode treeNode) {
+
+            return compile(treeNode, Node.NO_EDGE);
+        }
+
+        private Node compile(TreeNode treeNode, String[] edge) {
+
+            List<Node> splats = new ArrayList<Node>();
+            SegmentTable<Node[]> statics = Node.NO_STATICS;
+            List<Node> named = new ArrayList<Node>();
+            List<SegmentMatcher> namedMatchers = new ArrayList<SegmentMatcher>();
+            List<String> namedRegexes = new ArrayList<String>();
+
+            for (TreeNode child : treeNode.getChildren()) {
+
+                if (child.isSplat()) {
+
+                    splats.add(compile(child));
+
+                } else if (child.isNamedParameter()) {
+
+                    named.add(compile(child));
+                    namedMatchers.add(child.matcher());
+                    NamedParameterElement elem = (NamedParameterElement)child.getPathElement();
+                    namedRegexes.add(elem.hasRegex() ? elem.regex() : null);
+
+                } else {
+
+                    String segment = intern(child.getPathElement().name());
+                    if (statics == Node.NO_STATICS) statics = new SegmentTable<Node[]>();
+                    /* equally named static children are tried in the order they were added */
+                    Node[] sameName = statics.get(segment);
+                    Node next = compileStatic(child);
+                    if (sameName == null) {
+                        statics.put(segment, new Node[] { next });
+                    } else {
+                        Node[] newSameName = new Node[sameName.length + 1];
+                        System.arraycopy(sameName, 0, newSameName, 0, sameName.length);
+                        newSameName[sameName.length] = next;
+                        statics.put(segment, newSameName);
+                    }
+                }
+            }
+
+            List<Node> namedWithRoute = new ArrayList<Node>();
+            List<SegmentMatcher> namedWithRouteMatchers = new ArrayList<SegmentMatcher>();
+            List<String> namedWithRouteRegexes = new ArrayList<String>();
+            for (int i = 0; i < named.size(); i++) {
+                if (named.get(i).route != null) {
+                    namedWithRoute.add(named.get(i));
+                    namedWithRouteMatchers.add(namedMatchers.get(i));
+                    namedWithRouteRegexes.add(namedRegexes.get(i));
+                }
+            }
+
+            return new Node(treeNode, edge,
+                    splats.isEmpty() ? Node.NONE : splats.toArray(new Node[splats.size()]),
+                    statics,
+                    namedChildren(named, namedMatchers, namedRegexes),
+                    namedChildren(namedWithRoute, namedWithRouteMatchers, namedWithRouteRegexes));
+        }
+
+        /*
+         * collapses a run of static nodes, each with no route and a single
+         * static child, into one edge
+         */
+        private Node compileStatic(TreeNode treeNode) {
+
+            List<String> edge = new ArrayList<String>();
+            while (!treeNode.hasRoute() && treeNode.getChildren().size() == 1 &&
+                    treeNode.getChildren().get(0).isStatic()) {
+
+                treeNode = treeNode.getChildren().get(0);
+                edge.add(intern(treeNode.getPathElement().name()));
+            }
+            return compile(treeNode, edge.isEmpty() ? Node.NO_EDGE : edge.toArray(new String[edge.size()]));
+        }
+
+        private NamedChildren namedChildren(List<Node> nodes, List<SegmentMatcher> matchers,
+                List<String> regexes) {
+
+            if (nodes.isEmpty()) return NamedChildren.NONE;
+
+            /* merged only if more than one of the nodes would otherwise evaluate a regex */
+            int regexMatchers = 0;
+            boolean mergeable = true;
+            for (int i = 0; i < regexes.size(); i++) {
+
+                String regex = regexes.get(i);
+                if (matchers.get(i).isRegex()) regexMatchers++;
+                if (regex != null) mergeable &= !hasBackReference(regex);
+            }
+            mergeable &= regexMatchers > 1;
+
+            Pattern merged = null;
+            int[] groups = null;
+            if (mergeable) {
+
+                StringBuilder sb = new StringBuilder("^(?:");
+                groups = new int[nodes.size()];
+                int group = 1;
+                for (int i = 0; i < regexes.size(); i++) {
+
+                    String regex = regexes.get(i);
+                    if (i > 0) sb.append('|');
+                    sb.append('(').append(regex != null ? regex : "[^" + PATH_ELEMENT_SEPARATOR + "]+").append(')');
+                    groups[i] = group;
+                    /* the groups within the regex, plus the group around it */
+                    group += 1 + (regex != null ? pattern("^(" + regex + ")$").matcher("").groupCount() - 1 : 0);
+                }
+                sb.append(")$");
+                merged = pattern(sb.toString());
+            }
+
+            return new NamedChildren(nodes.toArray(new Node[nodes.size()]),
+                    matchers.toArray(new SegmentMatcher[matchers.size()]), merged, groups);
+        }
+
+        private String intern(String segment) {
+
+            String interned = segments.get(segment);
+            if (interned == null) {
+                segments.put(segment, segment);
+                interned = segment;
+            }
+            return interned;
+        }
+
+        private Pattern pattern(String regex) {
+
+            Pattern pattern = patterns.get(regex);
+            if (pattern == null) {
+                pattern = Pattern.compile(regex);
+                patterns.put(regex, pattern);
+            }
+            return pattern;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Routes requests by host, and then by path, with a route table for
+ * each host. Hosts are either exact names, such as "api.example.com",
+ * or wildcards, such as "*.tenant.example.com", which match any host
+ * ending with the given domain. A host matching both an exact name and
+ * a wildcard is routed with the exact name's routes; of the wildcards a
+ * host matches, the longest takes precedence. The wildcard "*" matches
+ * any host.
+ * <p>
+ * The route tables are compiled into FrozenRouters when routing, after
+ * routes have been added. Hosts with equal route tables (the same routes,
+ * compared with equals, added in the same order) share a single router,
+ * so memory does not grow with the number of hosts that serve the same
+ * routes.
+ */
+public class HostRouter {
+
+    private static final String WILDCARD_PREFIX = "*.";
+
+    /* the routes of each host pattern, in the order they were added */
+    private final Map<String, List<HostRoute>> routesByHost =
+            new LinkedHashMap<String, List<HostRoute>>();
+
+    /* the routers compiled for each distinct route table */
+    private Map<List<HostRoute>, FrozenRouter> routers =
+            new HashMap<List<HostRoute>, FrozenRouter>();
+
+    /* null if routes have been added since it was last compiled */
+    private volatile Hosts hosts;
+
+    public void add(String host, Route route) {
+
+        addRoute(host, null, route);
+    }
+
+    public void add(String host, String method, Route route) {
+
+        if (method == null) throw new IllegalArgumentException("method cannot be null");
+        addRoute(host, method, route);
+    }
+
+    private synchronized void addRoute(String host, String method, Route route) {
+
+        if (host == null) throw new IllegalArgumentException("host cannot be null");
+        if (route == null) throw new IllegalArgumentException("route cannot be null");
+
+        host = normalize(host);
+        int wildcard = host.lastIndexOf('*');
+        boolean valid = host.length() > 0 && (wildcard == -1 || host.equals("*") || 
+                (wildcard == 0 && host.startsWith(WILDCARD_PREFIX) && 
+                        host.length() > WILDCARD_PREFIX.length()));
+        if (!valid) throw new IllegalArgumentException("invalid host: " + host);
+
+        List<HostRoute> routes = routesByHost.get(host);
+        if (routes == null) {
+            routes = new ArrayList<HostRoute>();
+            routesByHost.put(host, routes);
+        }
+        routes.add(new HostRoute(method, route));
+        hosts = null;
+    }
+
+    /**
+     * Returns the router for the given host, or null if no
+     * routes were added for any pattern matching the host.
+     *
+     * @param host the host of a request, which may include a port
+     */
+    public MethodRouter getRouter(String host) {
+
+        Hosts hosts = this.hosts;
+        if (hosts == null) hosts = compile();
+        return hosts.find(host == null ? null : normalize(host));
+    }
+
+    public Route route(String host, String path) {
+
+        MethodRouter router = getRouter(host);
+        return router == null ? null : router.route(path);
+    }
+
+    public Route route(String host, String method, String path) {
+
+        MethodRouter router = getRouter(host);
+        return router == null ? null : router.route(method, path);
+    }
+
+    public RouteMatch match(String host, String path) {
+
+        MethodRouter router = getRouter(host);
+        return router == null ? null : router.match(path);
+    }
+
+    public RouteMatch match(String host, String method, String path) {
+
+        MethodRouter router = getRouter(host);
+        return router == null ? null : router.match(method, path);
+    }
+
+    /**
+     * Returns the number of distinct routers the hosts' route 
+     * tables were compiled into.
+     */
+    public synchronized int getRouterCount() {
+
+        compile();
+        return routers.size();
+    }
+
+    private synchronized Hosts compile() {
+
+        if (hosts != null) return hosts;
+
+        Map<List<HostRoute>, FrozenRouter> compiled = new HashMap<List<HostRoute>, FrozenRouter>();
+        Map<String, MethodRouter> exact = new HashMap<String, MethodRouter>();
+        HostNode wildcards = new HostNode();
+
+        for (Map.Entry<String, List<HostRoute>> entry : routesByHost.entrySet()) {
+
+            List<HostRoute> routes = entry.getValue();
+            FrozenRouter router = compiled.get(routes);
+            if (router == null) {
+                router = routers.get(routes);
+                if (router == null) router = freeze(routes);
+                /* a copy, as the host's routes may be added to later */
+                compiled.put(new ArrayList<HostRoute>(routes), router);
+            }
+
+            String host = entry.getKey();
+            if (host.equals("*")) {
+                wildcards.router = router;
+            } else if (host.startsWith(WILDCARD_PREFIX)) {
+                wildcards.add(host.substring(WILDCARD_PREFIX.length()), router);
+            } else {
+                exact.put(host, router);
+            }
+        }
+
+        routers = compiled;
+        hosts = new Hosts(exact, wildcards);
+        return hosts;
+    }
+
+    private static FrozenRouter freeze(List<HostRoute> routes) {
+
+        TreeRouter router = new TreeRouter();
+        for (HostRoute hostRoute : routes) {
+            if (hostRoute.method == null) {
+                router.add(hostRoute.route);
+            } else {
+                router.add(hostRoute.method, hostRoute.route);
+            }
+        }
+        return router.freeze();
+    }
+
+    /*
+     * lower cases the host, and removes any port and trailing dot;
+     * no new string is created if there is nothing to change
+     */
+    private static String normalize(String host) {
+
+        int end = host.length();
+        int colon = host.lastIndexOf(':');
+        /* a colon within an IPv6 address is not a port */
+        if (colon != -1 && host.indexOf(']') < colon) end = colon;
+        if (end > 0 && host.charAt(end - 1) == '.') end--;
+
+        boolean lowerCase = true;
+        for (int i = 0; i < end && lowerCase; i++) {
+            char ch = host.charAt(i);
+            lowerCase = !(ch >= 'A' && ch <= 'Z') && ch < 128;
+        }
+        if (lowerCase) {
+            return end == host.length() ? host : host.substring(0, end);
+        }
+        return host.substring(0, end).toLowerCase(Locale.ENGLISH);
+    }
+
+    private static final class HostRoute {
+
+        final String method;
+        final Route route;
+
+        HostRoute(String method, Route route) {
+            this.method = method;
+            this.route = route;
+        }
+
+        public int hashCode() {
+            return 31 * (method == null ? 0 : method.hashCode()) + route.hashCode();
+        }
+
+        public boolean equals(Object o) {
+
+            if (o == this) return true;
+            if (!(o instanceof HostRoute)) return false;
+            HostRoute that = (HostRoute)o;
+            return (method == null ? that.method == null : method.equals(that.method)) &&
+                    route.equals(that.route);
+        }
+    }
+
+    private static final class Hosts {
+
+        private final Map<String, MethodRouter> exact;
+        private final HostNode wildcards;
+
+        Hosts(Map<String, MethodRouter> exact, HostNode wildcards) {
+
+            this.exact = exact;
+            this.wildcards = wildcards;
+        }
+
+        MethodRouter find(String host) {
+
+            if (host == null) return wildcards.router;
+            MethodRouter router = exact.get(host);
+            return router != null ? router : wildcards.find(host);
+        }
+    }
+
+    /*
+     * a node in a trie of the wildcard domains, keyed by their labels
+     * from last to first, so that "*.tenant.example.com" is found under
+     * "com", "example", "tenant"; the node's router, if any, serves the
+     * hosts within its domain
+     */
+    private static final class HostNode {
+
+        SegmentTable<HostNode> children = new SegmentTable<HostNode>();
+        MethodRouter router;
+
+        void add(String domain, MethodRouter router) {
+
+            HostNode node = this;
+            int end = domain.length();
+            while (end > 0) {
+
+                int start = domain.lastIndexOf('.', end - 1) + 1;
+                String label = domain.substring(start, end);
+                HostNode child = node.children.get(label);
+                if (child == null) {
+                    child = new HostNode();
+                    node.children.put(label, child);
+                }
+                node = child;
+                end = start - 1;
+            }
+            node.router = router;
+        }
+
+        /*
+         * returns the router of the longest wildcard domain that the
+         * host is within; a wildcard does not match its domain itself
+         */
+        MethodRouter find(String host) {
+
+            MethodRouter found = null;
+            HostNode node = this;
+            int end = host.length();
+            while (end > 0) {
+
+                if (node.router != null) found = node.router;
+                int start = host.lastIndexOf('.', end - 1) + 1;
+                node = node.children.get(host, start, end);
+                if (node == null) break;
+                end = start - 1;
+            }
+            return found;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+/**
+ * A Router that records the hits, misses, and latency of the lookups
+ * made with another Router in a {@link RouterMetrics}.
+ */
+public class InstrumentedRouter implements Router {
+
+    private final Router router;
+    private final RouterMetrics metrics;
+
+    public InstrumentedRouter(Router router) {
+
+        this(router, new RouterMetrics());
+    }
+
+    public InstrumentedRouter(Router router, RouterMetrics metrics) {
+
+        if (router == null) throw new IllegalArgumentException("router cannot be null");
+        if (metrics == null) throw new IllegalArgumentException("metrics cannot be null");
+        this.router = router;
+        this.metrics = metrics;
+    }
+
+    public void add(Route route) {
+
+        router.add(route);
+    }
+
+    public boolean remove(Route route) {
+
+        if (!router.remove(route)) return false;
+        metrics.forget(route);
+        return true;
+    }
+
+    public boolean replace(Route route, Route replacement) {
+
+        if (!router.replace(route, replacement)) return false;
+        if (!route.equals(replacement)) metrics.forget(route);
+        return true;
+    }
+
+    public Route route(String path) {
+
+        long start = System.nanoTime();
+        Route route = router.route(path);
+        record(route, start);
+        return route;
+    }
+
+    public RouteMatch match(String path) {
+
+        long start = System.nanoTime();
+        RouteMatch match = router.match(path);
+        record(match == null ? null : match.getRoute(), start);
+        return match;
+    }
+
+    private void record(Route route, long start) {
+
+        long nanos = System.nanoTime() - start;
+        if (route != null) {
+            metrics.recordHit(route, nanos);
+        } else {
+            metrics.recordMiss(nanos);
+        }
+    }
+
+    public RouterMetrics getMetrics() {
+
+        return metrics;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+/**
+ * A Router that also routes by HTTP method. Routes added with a method
+ * are only matched for that method; routes added without one, using
+ * {@link Router#add(Route)}, are matched for any method. A path is
+ * searched for once, whatever the method, and the routes for each
+ * method are then looked up in the matching node.
+ */
+public interface MethodRouter extends Router {
+
+    /**
+     * Adds a route that only matches requests with the given method.
+     * The method is case-sensitive, as HTTP methods are.
+     */
+    void add(String method, Route route);
+    
+    /**
+     * Returns the Route that matches the given method and URL path,
+     * or null if none is found, including when routes exist for the
+     * path with other methods only.
+     */
+    Route route(String method, String path);
+    
+    /**
+     * Returns a RouteMatch for the given method and URL path. If routes
+     * exist for the path, but none for the method, the match is returned
+     * with {@link RouteMatch#isMethodAllowed()} false, and its route is
+     * that of another method. In either case, 
+     * {@link RouteMatch#getAllowedMethods()} returns the methods that 
+     * routes were added with for the path.
+     * 
+     *  @return the match, or null if no route matches the path
+     */
+    RouteMatch match(String method, String path);
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * An immutable table of the routes added for a path with each HTTP
+ * method. Tables are small, so methods are looked up by a linear scan.
+ */
+final class MethodTable {
+
+    static final MethodTable EMPTY = new MethodTable(new String[0], new Route[0]);
+
+    private final String[] methods;
+    private final Route[] routes;
+    private final Set<String> allowed;
+
+    private MethodTable(String[] methods, Route[] routes) {
+
+        this.methods = methods;
+        this.routes = routes;
+        this.allowed = Collections.unmodifiableSet(
+                new LinkedHashSet<String>(Arrays.asList(methods)));
+    }
+
+    /**
+     * Returns a table with the given route for the given method,
+     * in place of any route the method already has.
+     */
+    MethodTable with(String method, Route route) {
+
+        for (int i = 0; i < methods.length; i++) {
+            if (methods[i].equals(method)) {
+                Route[] newRoutes = routes.clone();
+                newRoutes[i] = route;
+                return new MethodTable(methods, newRoutes);
+            }
+        }
+
+        String[] newMethods = Arrays.copyOf(methods, methods.length + 1);
+        Route[] newRoutes = Arrays.copyOf(routes, routes.length + 1);
+        newMethods[methods.length] = method;
+        newRoutes[routes.length] = route;
+        return new MethodTable(newMethods, newRoutes);
+    }
+
+    /**
+     * Returns a table without the routes equal to the given route,
+     * or this table if there are none.
+     */
+    MethodTable without(Route route) {
+
+        int count = 0;
+        for (Route r : routes) {
+            if (!r.equals(route)) count++;
+        }
+        if (count == routes.length) return this;
+        if (count == 0) return EMPTY;
+
+        String[] newMethods = new String[count];
+        Route[] newRoutes = new Route[count];
+        count = 0;
+        for (int i = 0; i < routes.length; i++) {
+            if (!routes[i].equals(route)) {
+                newMethods[count] = methods[i];
+                newRoutes[count] = routes[i];
+                count++;
+            }
+        }
+        return new MethodTable(newMethods, newRoutes);
+    }
+
+    Route get(String method) {
+
+        for (int i = 0; i < methods.length; i++) {
+            if (methods[i].equals(method)) return routes[i];
+        }
+        return null;
+    }
+
+    /* the route of the first method added, or null if there is none */
+    Route first() {
+
+        return routes.length == 0 ? null : routes[0];
+    }
+
+    boolean isEmpty() {
+
+        return methods.length == 0;
+    }
+
+    /* the methods, in the order they were added */
+    Set<String> allowed() {
+
+        return allowed;
+    }
+}
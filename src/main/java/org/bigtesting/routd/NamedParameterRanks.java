@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import static org.bigtesting.routd.RouteHelper.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ranks the named parameters of the routes of a regex router, so that
+ * sibling named parameters with different names take precedence in the
+ * order they were first added, as the named children of a TreeNode do.
+ * A named parameter is identified by the elements of its route's path up
+ * to and including it, without their custom regexes, and keeps its rank
+ * for as long as the router has a route with it.
+ * <p>
+ * Instances are not safe for use by multiple concurrent threads; they
+ * are used while holding the router's lock.
+ */
+final class NamedParameterRanks {
+
+    /* the rank of each named parameter, followed by the number of routes with it */
+    private final Map<String, long[]> ranks = new HashMap<String, long[]>();
+
+    private long nextRank = 1;
+
+    /**
+     * Returns the rank of each named parameter of the route, by the 
+     * index of its element, as they would be if the route were added; 
+     * other elements have a rank of 0.
+     */
+    long[] of(Route route) {
+
+        String[] elements = elementsOf(route);
+        long[] routeRanks = new long[elements.length];
+        long next = nextRank;
+        String prefix = "";
+        for (int i = 0; i < elements.length; i++) {
+
+            prefix += PATH_ELEMENT_SEPARATOR + elements[i];
+            if (!elements[i].startsWith(PARAM_PREFIX)) continue;
+            long[] rank = ranks.get(prefix);
+            routeRanks[i] = rank != null ? rank[0] : next++;
+        }
+        return routeRanks;
+    }
+
+    /**
+     * Records that a route with the given ranks has been added.
+     */
+    void add(Route route, long[] routeRanks) {
+
+        String[] elements = elementsOf(route);
+        String prefix = "";
+        for (int i = 0; i < elements.length; i++) {
+
+            prefix += PATH_ELEMENT_SEPARATOR + elements[i];
+            if (!elements[i].startsWith(PARAM_PREFIX)) continue;
+            long[] rank = ranks.get(prefix);
+            if (rank == null) {
+                ranks.put(prefix, new long[] {routeRanks[i], 1});
+                nextRank = Math.max(nextRank, routeRanks[i] + 1);
+            } else {
+                rank[1]++;
+            }
+        }
+    }
+
+    /**
+     * Records that a route has been removed; the ranks of the named
+     * parameters no other route has are dropped.
+     */
+    void remove(Route route) {
+
+        String[] elements = elementsOf(route);
+        String prefix = "";
+        for (int i = 0; i < elements.length; i++) {
+
+            prefix += PATH_ELEMENT_SEPARATOR + elements[i];
+            if (!elements[i].startsWith(PARAM_PREFIX)) continue;
+            long[] rank = ranks.get(prefix);
+            if (rank != null && --rank[1] == 0) ranks.remove(prefix);
+        }
+    }
+
+    /* the elements of the route's path, as the RegexRouteComparator sees them */
+    private static String[] elementsOf(Route route) {
+
+        String path = CUSTOM_REGEX_PATTERN.matcher(route.getResourcePath()).replaceAll("");
+        return path.substring(1).split(PATH_ELEMENT_SEPARATOR, -1);
+    }
+}
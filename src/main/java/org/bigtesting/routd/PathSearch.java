@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import static org.bigtesting.routd.RouteHelper.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The state of a search for the route matching a path: the tokens of
+ * the path, the tokens captured by the named and splat parameters on
+ * the way to the route, and the node reached after each token. Each
+ * thread reuses its own instance.
+ */
+final class PathSearch {
+
+    private static final String[] NO_VALUES = new String[0];
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte NAMED = 0;
+    private static final byte SPLAT = 1;
+    /* a splat that ends the route, matching the rest of the path */
+    private static final byte SPLAT_REST = 2;
+
+    private static final ThreadLocal<PathSearch> SEARCH = new ThreadLocal<PathSearch>() {
+        protected PathSearch initialValue() {
+            return new PathSearch();
+        }
+    };
+
+    final PathTokenizer tokens = new PathTokenizer();
+    
+    /* the view of a path held as bytes */
+    private final ByteSequence bytes = new ByteSequence();
+
+    private byte[] captureKinds = new byte[8];
+    private int[] captureTokens = new int[8];
+    private int captureCount;
+
+    /* the node reached after each number of tokens, and the captures made by then */
+    private Object[] nodes = new Object[8];
+    private int[] nodeCaptureCounts = new int[8];
+    private int reached = -1;
+    
+    /* for a router whose nodes are positions in a buffer, the position of each node reached */
+    private int[] positions = new int[8];
+    
+    /*
+     * for each token, the children of the node reached before it that the
+     * search chose among, and the number of the candidate it chose, so that
+     * it can go on to the next candidate if it backtracks
+     */
+    private Object[] choices = new Object[8];
+    private int[] candidates = new int[8];
+    
+    /* the work done by the search, for a router's metrics */
+    int nodesVisited;
+    int regexEvaluations;
+    int backtracks;
+
+    private PathSearch() {}
+
+    /**
+     * Returns the search of the current thread, ready to search
+     * for the given path.
+     */
+    static PathSearch begin(CharSequence path) {
+
+        return SEARCH.get().start(path);
+    }
+
+    /**
+     * Returns the search of the current thread, ready to search for
+     * the path held in the given region of the buffer, as ASCII or
+     * UTF-8 bytes. ASCII paths are searched for in place.
+     */
+    static PathSearch begin(ByteBuffer buffer, int offset, int length) {
+
+        if (buffer == null) throw new IllegalArgumentException("path cannot be null");
+        if (offset < 0 || length < 0 || offset + length > buffer.limit()) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + 
+                    ", limit " + buffer.limit());
+        }
+
+        PathSearch search = SEARCH.get();
+        if (ByteSequence.isAscii(buffer, offset, length)) {
+            return search.start(search.bytes.wrap(buffer, offset, length));
+        }
+        ByteBuffer region = buffer.duplicate();
+        region.limit(offset + length).position(offset);
+        return search.start(UTF_8.decode(region));
+    }
+
+    private PathSearch start(CharSequence path) {
+
+        tokens.tokenize(path);
+        captureCount = 0;
+        nodesVisited = 0;
+        regexEvaluations = 0;
+        backtracks = 0;
+        return this;
+    }
+
+    /**
+     * Returns the node reached after the given number of tokens.
+     */
+    Object node(int depth) {
+
+        return nodes[depth];
+    }
+
+    /**
+     * Records the node reached after the given number of tokens.
+     */
+    void reach(int depth, Object node) {
+
+        ensureDepth(depth);
+        nodes[depth] = node;
+        nodeCaptureCounts[depth] = captureCount;
+        reached = depth;
+    }
+
+    /**
+     * Records the node at the given position of a buffer as the node
+     * reached after the given number of tokens.
+     */
+    void reach(int depth, int position) {
+
+        reach(depth, null);
+        positions[depth] = position;
+    }
+
+    int position(int depth) {
+
+        return positions[depth];
+    }
+
+    private void ensureDepth(int depth) {
+
+        if (depth >= nodes.length) {
+            int capacity = Math.max(nodes.length * 2, depth + 1);
+            Object[] newNodes = new Object[capacity];
+            int[] newCounts = new int[capacity];
+            Object[] newChoices = new Object[capacity];
+            int[] newCandidates = new int[capacity];
+            int[] newPositions = new int[capacity];
+            System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
+            System.arraycopy(nodeCaptureCounts, 0, newCounts, 0, nodes.length);
+            System.arraycopy(choices, 0, newChoices, 0, nodes.length);
+            System.arraycopy(candidates, 0, newCandidates, 0, nodes.length);
+            System.arraycopy(positions, 0, newPositions, 0, nodes.length);
+            nodes = newNodes;
+            nodeCaptureCounts = newCounts;
+            choices = newChoices;
+            candidates = newCandidates;
+            positions = newPositions;
+        }
+    }
+
+    /**
+     * Records the candidate chosen for the token at the given index,
+     * among the given children of the node reached before it.
+     */
+    void choose(int index, Object children, int candidate) {
+
+        ensureDepth(index);
+        choices[index] = children;
+        candidates[index] = candidate;
+    }
+
+    Object children(int index) {
+
+        return choices[index];
+    }
+
+    int candidate(int index) {
+
+        return candidates[index];
+    }
+
+    /**
+     * Returns to the node reached after the given number of tokens,
+     * forgetting the nodes reached and the captures made after it, so 
+     * that another candidate can be chosen for the next token.
+     */
+    void backtrack(int depth) {
+
+        for (int i = depth + 1; i <= reached; i++) {
+            nodes[i] = null;
+            choices[i] = null;
+        }
+        reached = depth;
+        captureCount = nodeCaptureCounts[depth];
+        backtracks++;
+    }
+
+    void captureNamed(int tokenIndex) {
+
+        capture(NAMED, tokenIndex);
+    }
+
+    void captureSplat(int tokenIndex, boolean rest) {
+
+        capture(rest ? SPLAT_REST : SPLAT, tokenIndex);
+    }
+
+    private void capture(byte kind, int tokenIndex) {
+
+        if (captureCount == captureKinds.length) {
+            byte[] newKinds = new byte[captureCount * 2];
+            int[] newTokens = new int[captureCount * 2];
+            System.arraycopy(captureKinds, 0, newKinds, 0, captureCount);
+            System.arraycopy(captureTokens, 0, newTokens, 0, captureCount);
+            captureKinds = newKinds;
+            captureTokens = newTokens;
+        }
+        captureKinds[captureCount] = kind;
+        captureTokens[captureCount] = tokenIndex;
+        captureCount++;
+    }
+
+    RouteMatch newMatch(Route route) {
+
+        return newMatch(route, true, Collections.<String>emptySet());
+    }
+
+    RouteMatch newMatch(Route route, boolean methodAllowed, Set<String> allowedMethods) {
+
+        int namedCount = 0;
+        for (int i = 0; i < captureCount; i++) {
+            if (captureKinds[i] == NAMED) namedCount++;
+        }
+        int splatCount = captureCount - namedCount;
+
+        String[] named = namedCount == 0 ? NO_VALUES : new String[namedCount];
+        String[] splat = splatCount == 0 ? NO_VALUES : new String[splatCount];
+        namedCount = 0;
+        splatCount = 0;
+        for (int i = 0; i < captureCount; i++) {
+
+            int token = captureTokens[i];
+            switch (captureKinds[i]) {
+            case NAMED:
+                named[namedCount++] = value(token, false);
+                break;
+            case SPLAT:
+                splat[splatCount++] = value(token, false);
+                break;
+            default:
+                splat[splatCount++] = value(token, true);
+            }
+        }
+        return new RouteMatch(route, named, splat, methodAllowed, allowedMethods);
+    }
+
+    private String value(int index, boolean rest) {
+
+        /* the trailing separator, or a missing token, have no value */
+        if (index >= tokens.size()) return "";
+        int end = rest ? tokens.pathEnd() : tokens.rawEnd(index);
+        return urlDecodeForPathParams(tokens.path().subSequence(tokens.rawStart(index), end).toString());
+    }
+
+    void clear() {
+
+        tokens.clear();
+        bytes.clear();
+        captureCount = 0;
+        for (int i = 0; i <= reached; i++) {
+            nodes[i] = null;
+            choices[i] = null;
+        }
+        reached = -1;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import static org.bigtesting.routd.RouteHelper.*;
+
+/**
+ * Splits an undecoded URL path into the tokens used for routing, in a
+ * single pass over the path. The path may be any CharSequence, such as a
+ * view of the bytes of a request. Tokens are recorded as offsets into the
+ * path, so that no substrings are created unless a token has to be URL
+ * decoded, or its text is explicitly requested. Instances are meant to be reused,
+ * but are not safe for use by multiple concurrent threads.
+ * <p>
+ * The tokens produced are the same as those produced by URL decoding the
+ * path for routing, splitting it into its elements, and ignoring any blank
+ * elements. If the path ends with a path separator, an additional '/' token
+ * is produced.
+ */
+public class PathTokenizer {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private CharSequence path;
+    
+    /* the end of the path, excluding any trailing whitespace */
+    private int pathEnd;
+
+    /* the raw offsets of each token in the path */
+    private int[] rawStarts = new int[INITIAL_CAPACITY];
+    private int[] rawEnds = new int[INITIAL_CAPACITY];
+
+    /*
+     * the routing form of a token, for tokens whose routing form
+     * is not simply their region in the path (i.e. tokens that had
+     * to be URL decoded, and the trailing separator token)
+     */
+    private String[] decoded = new String[INITIAL_CAPACITY];
+
+    private int size;
+
+    public void tokenize(CharSequence path) {
+
+        if (path == null) throw new IllegalArgumentException("path cannot be null");
+
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) <= ' ') start++;
+        while (end > start && path.charAt(end - 1) <= ' ') end--;
+        if (start == end) throw new IllegalArgumentException("path cannot be empty");
+
+        clear();
+        this.path = path;
+        this.pathEnd = end;
+
+        boolean encoded = requiresDecoding(path, start, end);
+        boolean hasSeparator = false;
+        boolean lastSegmentBlank = false;
+        int segmentStart = start;
+        for (int i = start; i <= end; i++) {
+
+            if (i == end || path.charAt(i) == '/') {
+
+                lastSegmentBlank = !addSegment(segmentStart, i, encoded,
+                        segmentStart == start, i == end);
+                if (i < end) hasSeparator = true;
+                segmentStart = i + 1;
+            }
+        }
+
+        if (size > 0 && hasSeparator && lastSegmentBlank) {
+            append(end, end, PATH_ELEMENT_SEPARATOR);
+        }
+    }
+
+    /*
+     * Returns whether a token was added for the segment; blank
+     * segments are ignored. The first and last segments of the path
+     * are trimmed, as the original path would be after decoding.
+     */
+    private boolean addSegment(int start, int end, boolean encoded,
+            boolean first, boolean last) {
+
+        if (!encoded) {
+            if (isBlank(path, start, end)) return false;
+            append(start, end, null);
+            return true;
+        }
+
+        String token = urlDecodeForRouting(path.subSequence(start, end).toString());
+        int tokenStart = 0;
+        int tokenEnd = token.length();
+        if (first) {
+            while (tokenStart < tokenEnd && token.charAt(tokenStart) <= ' ') tokenStart++;
+        }
+        if (last) {
+            while (tokenEnd > tokenStart && token.charAt(tokenEnd - 1) <= ' ') tokenEnd--;
+        }
+        if (isBlank(token, tokenStart, tokenEnd)) return false;
+        append(start, end, token.substring(tokenStart, tokenEnd));
+        return true;
+    }
+
+    private void append(int rawStart, int rawEnd, String decodedToken) {
+
+        if (size == rawStarts.length) {
+            grow();
+        }
+        rawStarts[size] = rawStart;
+        rawEnds[size] = rawEnd;
+        decoded[size] = decodedToken;
+        size++;
+    }
+
+    private void grow() {
+
+        int capacity = rawStarts.length * 2;
+        int[] newRawStarts = new int[capacity];
+        int[] newRawEnds = new int[capacity];
+        String[] newDecoded = new String[capacity];
+        System.arraycopy(rawStarts, 0, newRawStarts, 0, size);
+        System.arraycopy(rawEnds, 0, newRawEnds, 0, size);
+        System.arraycopy(decoded, 0, newDecoded, 0, size);
+        rawStarts = newRawStarts;
+        rawEnds = newRawEnds;
+        decoded = newDecoded;
+    }
+
+    /**
+     * Releases the path and any decoded tokens from the last call
+     * to tokenize.
+     */
+    public void clear() {
+
+        for (int i = 0; i < size; i++) {
+            decoded[i] = null;
+        }
+        size = 0;
+        path = null;
+    }
+
+    private static boolean requiresDecoding(CharSequence s, int start, int end) {
+
+        for (int i = start; i < end; i++) {
+            char ch = s.charAt(i);
+            if (ch == '%' || ch == '+') return true;
+        }
+        return false;
+    }
+
+    private static boolean isBlank(CharSequence s, int start, int end) {
+
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) > ' ') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of tokens in the last tokenized path.
+     *
+     * @return the number of tokens
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the path that was last tokenized.
+     *
+     * @return the undecoded path
+     */
+    public CharSequence path() {
+        return path;
+    }
+
+    /**
+     * Returns the end of the path, excluding any trailing whitespace.
+     */
+    public int pathEnd() {
+        return pathEnd;
+    }
+
+    /**
+     * Returns the string containing the routing form of the token
+     * at the given index, which lies between start(index) and end(index).
+     * No new string is created for tokens that did not require decoding.
+     */
+    public CharSequence source(int index) {
+        return decoded[index] != null ? decoded[index] : path;
+    }
+
+    public int start(int index) {
+        return decoded[index] != null ? 0 : rawStarts[index];
+    }
+
+    public int end(int index) {
+        return decoded[index] != null ? decoded[index].length() : rawEnds[index];
+    }
+
+    /**
+     * Returns the start of the undecoded token at the given
+     * index, in the path.
+     */
+    public int rawStart(int index) {
+        return rawStarts[index];
+    }
+
+    /**
+     * Returns the end of the undecoded token at the given
+     * index, in the path.
+     */
+    public int rawEnd(int index) {
+        return rawEnds[index];
+    }
+
+    /**
+     * Returns whether the token at the given index is the
+     * token produced for a trailing path separator.
+     */
+    public boolean isSeparator(int index) {
+        /* it is the only token that is empty in the path */
+        return rawStarts[index] == rawEnds[index];
+    }
+
+    /**
+     * Returns the routing form of the token at the given index.
+     * Note that this will create a new string for tokens that did
+     * not require decoding.
+     */
+    public String token(int index) {
+
+        if (decoded[index] != null) {
+            return decoded[index];
+        }
+        return path.subSequence(rawStarts[index], rawEnds[index]).toString();
+    }
+    
+    /**
+     * Returns whether the given regions of the two character sequences
+     * are the same.
+     */
+    static boolean regionMatches(CharSequence s1, int start1, CharSequence s2, int start2, int length) {
+        
+        if (s1 instanceof String && s2 instanceof String) {
+            return ((String)s1).regionMatches(start1, (String)s2, start2, length);
+        }
+        for (int i = 0; i < length; i++) {
+            if (s1.charAt(start1 + i) != s2.charAt(start2 + i)) return false;
+        }
+        return true;
+    }
+}
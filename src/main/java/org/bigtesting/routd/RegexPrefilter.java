@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+/**
+ * A cheap check that rejects most tokens a custom regex cannot match,
+ * without running the regex engine. It is worked out from the regex
+ * when the regex's node is added: the lengths of the strings the regex
+ * can match, the characters they can start with, and the characters
+ * they must contain. It is conservative: any token it rejects, the 
+ * regex would not match, but tokens it accepts may still not match.
+ * <p>
+ * Only regexes made up of literals, character classes, groups,
+ * alternations and quantifiers are analyzed; no prefilter is made
+ * for a regex with any other construct, such as a back reference.
+ */
+final class RegexPrefilter {
+    
+    private static final int UNBOUNDED = Integer.MAX_VALUE;
+    
+    private final int minLength;
+    private final int maxLength;
+    private final CharSet first;
+    private final CharSet required;
+    
+    private RegexPrefilter(int minLength, int maxLength, CharSet first, CharSet required) {
+        
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.first = first;
+        this.required = required;
+    }
+    
+    /**
+     * Returns a prefilter for the regex, or null if the regex is not
+     * one that can be analyzed, or if the prefilter would accept every
+     * token anyway.
+     */
+    static RegexPrefilter parse(String regex) {
+        
+        Info info;
+        try {
+            Parser parser = new Parser(regex);
+            info = parser.alternation();
+            if (parser.pos < regex.length()) return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        
+        boolean acceptsAll = info.min == 0 && info.max == UNBOUNDED && 
+                info.first.isAll() && info.required.isEmpty();
+        return acceptsAll ? null : new RegexPrefilter(info.min, info.max, info.first, info.required);
+    }
+    
+    /**
+     * Returns whether the regex may match the given region; if it returns
+     * false, the regex certainly does not.
+     */
+    boolean accepts(CharSequence s, int start, int end) {
+        
+        int length = end - start;
+        
+        /* $ also matches before a trailing line terminator, so such a token is left to the regex */
+        if (length > 0 && SegmentMatcher.isLineTerminator(s.charAt(end - 1))) return true;
+        
+        if (length < minLength || length > maxLength) return false;
+        if (length == 0) return true;
+        if (!first.contains(s.charAt(start))) return false;
+        
+        if (!required.isEmpty()) {
+            long low = 0;
+            long high = 0;
+            for (int i = start; i < end; i++) {
+                char ch = s.charAt(i);
+                if (ch < 64) low |= 1L << ch;
+                else if (ch < 128) high |= 1L << (ch - 64);
+            }
+            if ((low & required.low) != required.low || (high & required.high) != required.high) return false;
+        }
+        return true;
+    }
+    
+    /*
+     * a set of characters: the ASCII characters in two bit masks, and
+     * whether any non-ASCII characters may be in it
+     */
+    private static final class CharSet {
+        
+        static final CharSet EMPTY = new CharSet(0, 0, false);
+        static final CharSet ALL = new CharSet(-1L, -1L, true);
+        
+        final long low;
+        final long high;
+        final boolean nonAscii;
+        
+        CharSet(long low, long high, boolean nonAscii) {
+            
+            this.low = low;
+            this.high = high;
+            this.nonAscii = nonAscii;
+        }
+        
+        static CharSet of(char ch) {
+            
+            if (ch >= 128) return new CharSet(0, 0, true);
+            return ch < 64 ? new CharSet(1L << ch, 0, false) : new CharSet(0, 1L << (ch - 64), false);
+        }
+        
+        static CharSet range(char from, char to) {
+            
+            long low = 0;
+            long high = 0;
+            for (int ch = from; ch <= Math.min(to, 127); ch++) {
+                if (ch < 64) low |= 1L << ch;
+                else high |= 1L << (ch - 64);
+            }
+            return new CharSet(low, high, to >= 128);
+        }
+        
+        boolean contains(char ch) {
+            
+            if (ch >= 128) return nonAscii;
+            return ch < 64 ? (low & (1L << ch)) != 0 : (high & (1L << (ch - 64))) != 0;
+        }
+        
+        CharSet union(CharSet other) {
+            return new CharSet(low | other.low, high | other.high, nonAscii || other.nonAscii);
+        }
+        
+        /* only the ASCII characters are kept track of for required characters */
+        CharSet intersection(CharSet other) {
+            return new CharSet(low & other.low, high & other.high, false);
+        }
+        
+        /* the complement, which includes all non-ASCII characters */
+        CharSet negate() {
+            return new CharSet(~low, ~high, true);
+        }
+        
+        boolean isAll() {
+            return low == -1L && high == -1L && nonAscii;
+        }
+        
+        boolean isEmpty() {
+            return low == 0 && high == 0;
+        }
+    }
+    
+    /*
+     * what is known of the strings matched by part of a regex
+     */
+    private static final class Info {
+        
+        static final Info EMPTY = new Info(0, 0, CharSet.EMPTY, CharSet.EMPTY);
+        
+        final int min;
+        final int max;
+        final CharSet first;
+        final CharSet required;
+        
+        Info(int min, int max, CharSet first, CharSet required) {
+            
+            this.min = min;
+            this.max = max;
+            this.first = first;
+            this.required = required;
+        }
+        
+        /*
+         * a class matches one code point, which is two chars if it is a
+         * supplementary character; only a class with non-ASCII characters
+         * can match one
+         */
+        static Info single(CharSet chars, CharSet required) {
+            return new Info(1, chars.nonAscii ? 2 : 1, chars, required);
+        }
+        
+        /* a literal is never half of a surrogate pair, which is not analyzed */
+        static Info literal(char ch) {
+            
+            CharSet chars = CharSet.of(ch);
+            return new Info(1, 1, chars, ch < 128 ? chars : CharSet.EMPTY);
+        }
+        
+        Info followedBy(Info next) {
+            
+            return new Info(add(min, next.min), add(max, next.max), 
+                    min == 0 ? first.union(next.first) : first, 
+                    required.union(next.required));
+        }
+        
+        Info or(Info other) {
+            
+            return new Info(Math.min(min, other.min), Math.max(max, other.max), 
+                    first.union(other.first), required.intersection(other.required));
+        }
+        
+        Info repeated(int from, int to) {
+            
+            if (to == 0) return EMPTY;
+            return new Info(multiply(min, from), max == 0 ? 0 : multiply(max, to), 
+                    first, from > 0 ? required : CharSet.EMPTY);
+        }
+        
+        private static int add(int a, int b) {
+            
+            long sum = (long)a + b;
+            return a == UNBOUNDED || b == UNBOUNDED || sum >= UNBOUNDED ? UNBOUNDED : (int)sum;
+        }
+        
+        private static int multiply(int a, int b) {
+            
+            long product = (long)a * b;
+            return a == UNBOUNDED || b == UNBOUNDED || product >= UNBOUNDED ? UNBOUNDED : (int)product;
+        }
+    }
+    
+    /*
+     * a recursive descent over the regex, which throws an 
+     * IllegalArgumentException for anything it does not analyze
+     */
+    private static final class Parser {
+        
+        private static final CharSet DIGITS = CharSet.range('0', '9');
+        private static final CharSet WORD = DIGITS.union(CharSet.range('a', 'z'))
+                .union(CharSet.range('A', 'Z')).union(CharSet.of('_'));
+        private static final CharSet SPACE = CharSet.of(' ').union(CharSet.range('\t', '\r'));
+        private static final CharSet DOT = CharSet.of('\n').union(CharSet.of('\r')).negate();
+        
+        private final String regex;
+        int pos;
+        
+        Parser(String regex) {
+            this.regex = regex;
+        }
+        
+        Info alternation() {
+            
+            Info info = sequence();
+            while (pos < regex.length() && regex.charAt(pos) == '|') {
+                pos++;
+                info = info.or(sequence());
+            }
+            return info;
+        }
+        
+        private Info sequence() {
+            
+            Info info = Info.EMPTY;
+            while (pos < regex.length() && regex.charAt(pos) != '|' && regex.charAt(pos) != ')') {
+                info = info.followedBy(quantified(atom()));
+            }
+            return info;
+        }
+        
+        private Info atom() {
+            
+            char ch = regex.charAt(pos++);
+            switch (ch) {
+            case '(':
+                if (regex.startsWith("?:", pos)) {
+                    pos += 2;
+                } else if (pos < regex.length() && regex.charAt(pos) == '?') {
+                    throw unsupported();
+                }
+                Info group = alternation();
+                expect(')');
+                return group;
+            case '[':
+                return Info.single(charClass(), CharSet.EMPTY);
+            case '.':
+                return Info.single(DOT, CharSet.EMPTY);
+            case '\\':
+                CharSet shorthand = shorthand();
+                if (shorthand != null) return Info.single(shorthand, CharSet.EMPTY);
+                return Info.literal(escapedLiteral());
+            case '^': case '$': case '*': case '+': case '?': case '{': case ')': case '|':
+                throw unsupported();
+            default:
+                if (isSurrogate(ch)) throw unsupported();
+                return Info.literal(ch);
+            }
+        }
+        
+        private Info quantified(Info atom) {
+            
+            if (pos == regex.length()) return atom;
+            int from;
+            int to;
+            switch (regex.charAt(pos)) {
+            case '?': from = 0; to = 1; break;
+            case '*': from = 0; to = UNBOUNDED; break;
+            case '+': from = 1; to = UNBOUNDED; break;
+            case '{':
+                int close = regex.indexOf('}', pos);
+                if (close == -1) throw unsupported();
+                String bounds = regex.substring(pos + 1, close);
+                if (!bounds.matches("\\d{1,4}(,\\d{0,4})?")) throw unsupported();
+                int comma = bounds.indexOf(',');
+                if (comma == -1) {
+                    from = to = Integer.parseInt(bounds);
+                } else {
+                    from = Integer.parseInt(bounds.substring(0, comma));
+                    to = comma == bounds.length() - 1 ? UNBOUNDED : Integer.parseInt(bounds.substring(comma + 1));
+                }
+                pos = close;
+                break;
+            default:
+                return atom;
+            }
+            pos++;
+            
+            /* a reluctant or possessive quantifier matches the same strings */
+            if (pos < regex.length() && (regex.charAt(pos) == '?' || regex.charAt(pos) == '+')) pos++;
+            return atom.repeated(from, to);
+        }
+        
+        private CharSet charClass() {
+            
+            boolean negated = pos < regex.length() && regex.charAt(pos) == '^';
+            if (negated) pos++;
+            CharSet set = CharSet.EMPTY;
+            int classStart = pos;
+            while (true) {
+                
+                if (pos == regex.length()) throw unsupported();
+                char ch = regex.charAt(pos++);
+                if (ch == ']' && pos - 1 > classStart) break;
+                if (ch == '[' || (ch == '&' && pos < regex.length() && regex.charAt(pos) == '&')) {
+                    throw unsupported();
+                }
+                if (isSurrogate(ch)) throw unsupported();
+                if (ch == '\\') {
+                    CharSet shorthand = shorthand();
+                    if (shorthand != null) {
+                        set = set.union(shorthand);
+                        continue;
+                    }
+                    ch = escapedLiteral();
+                }
+                char last = ch;
+                if (pos + 1 < regex.length() && regex.charAt(pos) == '-' && regex.charAt(pos + 1) != ']') {
+                    pos++;
+                    last = regex.charAt(pos++);
+                    if (last == '\\') last = escapedLiteral();
+                    if (isSurrogate(last)) throw unsupported();
+                    if (last == '[' || last < ch) throw unsupported();
+                }
+                set = set.union(CharSet.range(ch, last));
+            }
+            return negated ? set.negate() : set;
+        }
+        
+        /* the class for a shorthand, such as \d, after the backslash, or null if it is not one */
+        private CharSet shorthand() {
+            
+            if (pos == regex.length()) throw unsupported();
+            CharSet set;
+            switch (regex.charAt(pos)) {
+            case 'd': set = DIGITS; break;
+            case 'w': set = WORD; break;
+            case 's': set = SPACE; break;
+            case 'D': set = DIGITS.negate(); break;
+            case 'W': set = WORD.negate(); break;
+            case 'S': set = SPACE.negate(); break;
+            default: return null;
+            }
+            pos++;
+            return set;
+        }
+        
+        /* an escaped character that stands for itself, after the backslash */
+        private char escapedLiteral() {
+            
+            if (pos == regex.length()) throw unsupported();
+            char ch = regex.charAt(pos++);
+            if (Character.isLetterOrDigit(ch) || isSurrogate(ch)) throw unsupported();
+            return ch;
+        }
+        
+        /* 
+         * a supplementary character in the regex is a single code point, 
+         * which a quantifier or a class treats as a whole
+         */
+        private static boolean isSurrogate(char ch) {
+            return ch >= Character.MIN_SURROGATE && ch <= Character.MAX_SURROGATE;
+        }
+        
+        private void expect(char ch) {
+            
+            if (pos == regex.length() || regex.charAt(pos) != ch) throw unsupported();
+            pos++;
+        }
+        
+        private IllegalArgumentException unsupported() {
+            return new IllegalArgumentException("not analyzed: " + regex);
+        }
+    }
+}
@@ -33,11 +33,22 @@ public class RegexRoute {
      * safe for such use.
      */
     private final Pattern pattern;
+    private final ThreadMatcher matcher;
+    
+    /* the ranks of the route's named parameters in its router, or null */
+    final long[] ranks;
     
     public RegexRoute(Route route) {
         
+        this(route, null);
+    }
+    
+    RegexRoute(Route route, long[] ranks) {
+        
         this.route = route;
         this.pattern = compilePattern();
+        this.matcher = new ThreadMatcher(pattern);
+        this.ranks = ranks;
     }
     
     private Pattern compilePattern() {
@@ -91,6 +102,15 @@ public Pattern pattern() {
         return pattern;
     }
     
+    /**
+     * Returns whether the given path matches the route's pattern.
+     */
+    public boolean matches(String path) {
+        
+        /* the pattern is anchored at the start, so it can only match there */
+        return matcher.reset(path).lookingAt();
+    }
+    
     public Route getRoute() {
         
         return route;
@@ -47,6 +47,11 @@ public int compare(RegexRoute r1, RegexRoute r2) {
             
             if (!r1Elem.equals(r2Elem)) {
                 
+                if (r1.ranks != null && r2.ranks != null && 
+                        r1Elem.startsWith(PARAM_PREFIX) && r2Elem.startsWith(PARAM_PREFIX)) {
+                    /* sibling named parameters take precedence in the order they were added */
+                    return r1.ranks[i] < r2.ranks[i] ? -1 : 1;
+                }
                 return new PathElementComparator().compare(r1Elem, r2Elem);
             }
         }
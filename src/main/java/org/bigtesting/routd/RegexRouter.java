@@ -15,9 +15,8 @@
  */
 package org.bigtesting.routd;
 
-import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * 
@@ -25,11 +24,70 @@
  */
 public class RegexRouter implements Router {
 
-    private final Set<RegexRoute> routes = 
-            new ConcurrentSkipListSet<RegexRoute>(new RegexRouteComparator());
+    /*
+     * each route, keyed by itself, so that a route can be replaced 
+     * by an equal one in place
+     */
+    private final ConcurrentNavigableMap<RegexRoute, RegexRoute> routes = 
+            new ConcurrentSkipListMap<RegexRoute, RegexRoute>(new RegexRouteComparator());
+    
+    private final NamedParameterRanks ranks = new NamedParameterRanks();
+    
+    /*
+     * counts the starts and ends of replacements, so it is odd while a 
+     * route is being replaced; a lookup that overlaps a replacement is
+     * made again once the replacement is done, as it may have missed both
+     * the route and its replacement
+     */
+    private volatile int replacements;
     
-    public void add(Route route) {
-        routes.add(new RegexRoute(route));
+    public synchronized void add(Route route) {
+        
+        RegexRoute regexRoute = regexRoute(route);
+        if (routes.putIfAbsent(regexRoute, regexRoute) == null) {
+            ranks.add(route, regexRoute.ranks);
+        }
+    }
+    
+    public synchronized boolean remove(Route route) {
+        
+        if (routes.remove(regexRoute(route)) == null) return false;
+        ranks.remove(route);
+        return true;
+    }
+    
+    /**
+     * Replaces the route. A replacement equal to the route takes its 
+     * place in a single step; any other replacement is added before 
+     * the route is removed, and lookups that run in the meantime are
+     * made again once it is.
+     */
+    public synchronized boolean replace(Route route, Route replacement) {
+        
+        if (replacement == null) throw new IllegalArgumentException("replacement cannot be null");
+        
+        RegexRoute key = regexRoute(route);
+        if (!routes.containsKey(key)) return false;
+        
+        if (replacement.equals(route)) {
+            RegexRoute regexReplacement = new RegexRoute(replacement, key.ranks);
+            routes.replace(key, regexReplacement);
+        } else {
+            replacements++;
+            try {
+                add(replacement);
+                remove(route);
+            } finally {
+                replacements++;
+            }
+        }
+        return true;
+    }
+    
+    /* a route ranked among the routes of this router */
+    private RegexRoute regexRoute(Route route) {
+        
+        return new RegexRoute(route, ranks.of(route));
     }
     
     /**
@@ -44,13 +102,31 @@ public Route route(String path) {
     
         path = RouteHelper.urlDecodeForRouting(path);
         
-        for (RegexRoute route : routes) {
-            Matcher m = route.pattern().matcher(path);
-            if (m.find()) {
+        while (true) {
+            int replacements = this.replacements;
+            if ((replacements & 1) == 0) {
+                Route route = find(path);
+                if (replacements == this.replacements) return route;
+            }
+            /* a replacement is under way; let it finish before looking again */
+            Thread.yield();
+        }
+    }
+    
+    private Route find(String path) {
+        
+        for (RegexRoute route : routes.values()) {
+            if (route.matches(path)) {
                 return route.getRoute();
             }
         }
         
         return null;
     }
+    
+    public RouteMatch match(String path) {
+        
+        Route route = route(path);
+        return route == null ? null : new RouteMatch(route, path);
+    }
 }
@@ -18,10 +18,7 @@
 import static org.bigtesting.routd.RouteHelper.*;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.regex.Matcher;
 
 /**
  * 
@@ -35,6 +32,9 @@ public class Route {
     private final List<SplatParameterElement> splatParamElements;
     private final List<StaticPathElement> staticPathElements;
     
+    /**
+     * @throws RouteSyntaxException if the path is not valid route syntax
+     */
     public Route(String paramPath) {
         
         if (paramPath == null) {
@@ -52,60 +52,17 @@ public Route(String paramPath) {
     
     private void extractPathElements() {
         
-        Matcher m = CUSTOM_REGEX_PATTERN.matcher(resourcePath);
-        Map<String, String> regexMap = getRegexMap(m);
-        String path = m.replaceAll("");
-        
-        String[] pathElements = RouteHelper.getPathElements(path);
-        for (int i = 0; i < pathElements.length; i++) {
+        for (PathElement elem : RouteLexer.lex(resourcePath)) {
             
-            String currentElement = pathElements[i];
-            
-            if (currentElement.startsWith(PARAM_PREFIX)) {
-                
-                currentElement = currentElement.substring(1);
-                NamedParameterElement named = 
-                        new NamedParameterElement(currentElement, i, regexMap.get(currentElement));
-                namedParamElements.add(named);
-                allPathElements.add(named);
-                
-            } else if (currentElement.equals(WILDCARD)) {
-                
-                SplatParameterElement splat = new SplatParameterElement(i);
-                splatParamElements.add(splat);
-                allPathElements.add(splat);
-                
+            if (elem instanceof NamedParameterElement) {
+                namedParamElements.add((NamedParameterElement)elem);
+            } else if (elem instanceof SplatParameterElement) {
+                splatParamElements.add((SplatParameterElement)elem);
             } else {
-                
-                if (currentElement.trim().length() < 1) continue;
-                StaticPathElement staticElem = new StaticPathElement(currentElement, i);
-                staticPathElements.add(staticElem);
-                allPathElements.add(staticElem);
-            }
-        }
-    }
-    
-    /*
-     * Returns a map of named param names to their regex, for
-     * named params that have a regex.
-     * e.g. {"name" -> "[a-z]+"}
-     */
-    private Map<String, String> getRegexMap(Matcher m) {
-        
-        Map<String, String> regexMap = new HashMap<String, String>();
-        while (m.find()) {
-            String regex = resourcePath.substring(m.start() + 1, m.end() - 1);
-            int namedParamStart = m.start() - 1;
-            int namedParamEnd = m.start();
-            String namedParamName = resourcePath.substring(namedParamStart, namedParamEnd);
-            while (!namedParamName.startsWith(PARAM_PREFIX)) {
-                namedParamStart--;
-                namedParamName = resourcePath.substring(namedParamStart, namedParamEnd);
+                staticPathElements.add((StaticPathElement)elem);
             }
-            namedParamName = resourcePath.substring(namedParamStart + 1, namedParamEnd);
-            regexMap.put(namedParamName, regex);
+            allPathElements.add(elem);
         }
-        return regexMap;
     }
     
     public String getResourcePath() {
@@ -133,6 +90,24 @@ public List<StaticPathElement> getStaticPathElements() {
         return new ArrayList<StaticPathElement>(staticPathElements);
     }
     
+    /**
+     * Returns the position of the named parameter amongst the named 
+     * parameters of this Route, which is the index of its value in a 
+     * {@link RouteMatch} for this Route.
+     * 
+     * @return the index of the named parameter, or -1 if no named 
+     *         parameter exists with the given name
+     */
+    public int getNamedParameterIndex(String paramName) {
+        
+        for (int i = 0; i < namedParamElements.size(); i++) {
+            if (namedParamElements.get(i).name().equals(paramName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
     /**
      * Use of this method assumes the path given matches this Route.
      * 
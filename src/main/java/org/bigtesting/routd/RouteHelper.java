@@ -15,8 +15,7 @@
  */
 package org.bigtesting.routd;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
+import java.nio.charset.Charset;
 import java.text.CharacterIterator;
 import java.text.StringCharacterIterator;
 import java.util.Arrays;
@@ -52,6 +51,17 @@ public class RouteHelper {
             new HashSet<Character>(Arrays.asList(
             '[',']','(',')','{','}','+','*','^','?','$','.','\\')));
     
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    /*
+     * buffers reused by each thread when a string has to be URL decoded
+     */
+    private static final ThreadLocal<DecodeBuffer> DECODE_BUFFER = new ThreadLocal<DecodeBuffer>() {
+        protected DecodeBuffer initialValue() {
+            return new DecodeBuffer();
+        }
+    };
+    
     public static String[] getPathElements(String path) {
         return getPathElements(path, true);
     }
@@ -64,22 +74,117 @@ public static String[] getPathElements(String path, boolean ignoreTrailingSepara
         return path.split(PATH_ELEMENT_SEPARATOR, ignoreTrailingSeparator ? 0 : -1);
     }
     
+    /**
+     * URL decodes the given string, except for '+', which is 
+     * retained as a literal '+'.
+     */
     public static String urlDecodeForPathParams(String s) {
-        s = s.replaceAll("\\+", "%2b");
-        return urlDecode(s);
+        return urlDecode(s, false, false);
     }
     
+    /**
+     * URL decodes the given string, except for an encoded '/', which is 
+     * retained as "%2f", so that it is not mistaken for a path separator.
+     */
     public static String urlDecodeForRouting(String s) {
-        s = s.replaceAll("%2f|%2F", "%252f");
-        return urlDecode(s);
+        return urlDecode(s, true, true);
     }
     
+    /**
+     * URL decodes the given string, in the same way as 
+     * java.net.URLDecoder would using UTF-8.
+     */
     public static String urlDecode(String s) {
-        try {
-            return URLDecoder.decode(s, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException("could not URL decode string: " + s, e);
+        return urlDecode(s, true, false);
+    }
+    
+    /*
+     * The string is scanned once, and returned unchanged if there is 
+     * nothing to decode. Otherwise, it is decoded in one pass into a 
+     * buffer that is reused by the current thread.
+     */
+    private static String urlDecode(String s, boolean decodePlus, boolean retainEncodedSeparator) {
+        
+        int length = s.length();
+        int i = 0;
+        while (i < length) {
+            char ch = s.charAt(i);
+            if (ch == '%' || (ch == '+' && decodePlus)) break;
+            i++;
+        }
+        if (i == length) return s;
+        
+        DecodeBuffer buffer = DECODE_BUFFER.get();
+        StringBuilder sb = buffer.chars;
+        sb.setLength(0);
+        sb.append(s, 0, i);
+        
+        while (i < length) {
+            
+            char ch = s.charAt(i);
+            if (ch == '+') {
+                
+                sb.append(decodePlus ? ' ' : '+');
+                i++;
+                
+            } else if (ch == '%') {
+                
+                /* consecutive escaped bytes are decoded together, as UTF-8 */
+                int byteCount = 0;
+                boolean encodedSeparator = false;
+                while (i < length && s.charAt(i) == '%') {
+                    
+                    if (i + 2 >= length) {
+                        throw new IllegalArgumentException(
+                                "could not URL decode string, incomplete escape pattern: " + s);
+                    }
+                    int hi = Character.digit(s.charAt(i + 1), 16);
+                    int lo = Character.digit(s.charAt(i + 2), 16);
+                    if (hi == -1 || lo == -1) {
+                        throw new IllegalArgumentException(
+                                "could not URL decode string, illegal hex characters in escape pattern: " + s);
+                    }
+                    
+                    int b = (hi << 4) + lo;
+                    if (b == '/' && retainEncodedSeparator) {
+                        encodedSeparator = true;
+                        break;
+                    }
+                    
+                    buffer.put(byteCount++, (byte)b);
+                    i += 3;
+                }
+                buffer.appendBytes(byteCount);
+                
+                if (encodedSeparator) {
+                    sb.append("%2f");
+                    i += 3;
+                }
+                
+            } else {
+                
+                sb.append(ch);
+                i++;
+            }
+        }
+        
+        return sb.toString();
+    }
+    
+    /**
+     * Returns whether the given regex contains a back reference, which
+     * would refer to the wrong group if the regex were combined with others.
+     */
+    public static boolean hasBackReference(String regex) {
+        
+        for (int i = 0; i < regex.length() - 1; i++) {
+            if (regex.charAt(i) == '\\') {
+                char next = regex.charAt(i + 1);
+                if (Character.isDigit(next) || next == 'k') return true;
+                i++;
+            }
         }
+        return false;
     }
     
     public static String escapeNonCustomRegex(String path) {
@@ -106,4 +211,34 @@ public static String escapeNonCustomRegex(String path) {
         
         return sb.toString();
     }
+    
+    private static class DecodeBuffer {
+        
+        private final StringBuilder chars = new StringBuilder();
+        private byte[] bytes = new byte[16];
+        
+        void put(int index, byte b) {
+            
+            if (index == bytes.length) {
+                byte[] newBytes = new byte[bytes.length * 2];
+                System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
+                bytes = newBytes;
+            }
+            bytes[index] = b;
+        }
+        
+        void appendBytes(int count) {
+            
+            for (int i = 0; i < count; i++) {
+                if (bytes[i] < 0) {
+                    chars.append(new String(bytes, 0, count, UTF_8));
+                    return;
+                }
+            }
+            /* all ASCII, so no UTF-8 decoding is required */
+            for (int i = 0; i < count; i++) {
+                chars.append((char)bytes[i]);
+            }
+        }
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import static org.bigtesting.routd.RouteHelper.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a route path into its path elements in a single pass. A
+ * segment starting with ':' is a named parameter, which may be followed
+ * by a custom regex in angle brackets, such as :id&lt;[0-9]+&gt;; the
+ * regex may contain path separators. A segment that is only '*' is a
+ * splat parameter, and any other segment that is not blank is a static
+ * element. Each element's index is the position of its segment in the
+ * path, blank segments included.
+ */
+final class RouteLexer {
+    
+    private RouteLexer() {}
+    
+    /**
+     * @throws RouteSyntaxException if the path is not valid route syntax
+     */
+    static List<PathElement> lex(String resourcePath) {
+        
+        String path = resourcePath.trim();
+        if (path.length() == 0) throw new IllegalArgumentException("path cannot be empty");
+        /* the offset of the trimmed path in the original, for reporting errors */
+        int offset = resourcePath.indexOf(path.charAt(0));
+        
+        List<PathElement> elements = new ArrayList<PathElement>();
+        int length = path.length();
+        int i = path.charAt(0) == '/' ? 1 : 0;
+        for (int index = 0; i < length; index++) {
+            
+            int start = i;
+            if (path.charAt(i) == ':') {
+                
+                i++;
+                while (i < length && path.charAt(i) != '/' && path.charAt(i) != CUSTOM_REGEX_START) i++;
+                if (i == start + 1) {
+                    throw new RouteSyntaxException("missing named parameter name", resourcePath, offset + start);
+                }
+                String name = path.substring(start + 1, i);
+                String regex = null;
+                if (i < length && path.charAt(i) == CUSTOM_REGEX_START) {
+                    
+                    int regexEnd = path.indexOf(CUSTOM_REGEX_END, i + 1);
+                    if (regexEnd == -1) {
+                        throw new RouteSyntaxException("unclosed regex", resourcePath, offset + i);
+                    }
+                    if (regexEnd == i + 1) {
+                        throw new RouteSyntaxException("empty regex", resourcePath, offset + i);
+                    }
+                    regex = path.substring(i + 1, regexEnd);
+                    i = regexEnd + 1;
+                    if (i < length && path.charAt(i) != '/') {
+                        throw new RouteSyntaxException("unexpected character after regex", resourcePath, offset + i);
+                    }
+                }
+                elements.add(new NamedParameterElement(name, index, regex));
+                
+            } else {
+                
+                boolean blank = true;
+                while (i < length && path.charAt(i) != '/') {
+                    char ch = path.charAt(i);
+                    if (ch == CUSTOM_REGEX_START) {
+                        throw new RouteSyntaxException("regex without a named parameter", resourcePath, offset + i);
+                    }
+                    if (ch > ' ') blank = false;
+                    i++;
+                }
+                if (i == start + 1 && path.charAt(start) == '*') {
+                    elements.add(new SplatParameterElement(index));
+                } else if (!blank) {
+                    elements.add(new StaticPathElement(path.substring(start, i), index));
+                }
+            }
+            
+            /* skip the separator */
+            i++;
+        }
+        return elements;
+    }
+}
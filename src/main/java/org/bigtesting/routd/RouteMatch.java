@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import static org.bigtesting.routd.RouteHelper.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The result of routing a path: the matching Route, along with the
+ * values of its named and splat parameters in the path. The values
+ * are URL decoded, and are held in the order in which the parameters
+ * appear in the route, so no further parsing of the path is needed
+ * to read them.
+ * <p>
+ * When routing by HTTP method (see {@link MethodRouter}), a match is 
+ * also returned when a route matches the path but not the method, in
+ * which case {@link #isMethodAllowed()} is false.
+ */
+public class RouteMatch {
+
+    private static final String[] NO_VALUES = new String[0];
+
+    private final Route route;
+    private final String[] namedParameters;
+    private final String[] splat;
+    private final boolean methodAllowed;
+    private final Set<String> allowedMethods;
+
+    /**
+     * @param route the matching route
+     * @param namedParameters the values of the named parameters,
+     *                        in the order they appear in the route
+     * @param splat the values of the splat parameters, in the order
+     *              they appear in the route
+     */
+    public RouteMatch(Route route, String[] namedParameters, String[] splat) {
+
+        this(route, namedParameters, splat, true, Collections.<String>emptySet());
+    }
+
+    /**
+     * @param route the matching route
+     * @param namedParameters the values of the named parameters,
+     *                        in the order they appear in the route
+     * @param splat the values of the splat parameters, in the order
+     *              they appear in the route
+     * @param methodAllowed whether the route matches the method 
+     *                      of the request
+     * @param allowedMethods the methods that routes were added with 
+     *                       for the path
+     */
+    public RouteMatch(Route route, String[] namedParameters, String[] splat,
+            boolean methodAllowed, Set<String> allowedMethods) {
+
+        this.route = route;
+        this.namedParameters = namedParameters;
+        this.splat = splat;
+        this.methodAllowed = methodAllowed;
+        this.allowedMethods = allowedMethods;
+    }
+
+    /**
+     * Creates a match by extracting the parameter values from the given
+     * path, which is assumed to match the route.
+     *
+     * @param route the matching route
+     * @param path the undecoded path that matches the route
+     */
+    public RouteMatch(Route route, String path) {
+
+        this.route = route;
+
+        List<NamedParameterElement> namedElements = route.getNamedParameterElements();
+        if (namedElements.isEmpty()) {
+            this.namedParameters = NO_VALUES;
+        } else {
+            String[] pathTokens = getPathElements(path);
+            this.namedParameters = new String[namedElements.size()];
+            for (int i = 0; i < namedParameters.length; i++) {
+                namedParameters[i] = urlDecodeForPathParams(
+                        pathTokens[namedElements.get(i).index()]);
+            }
+        }
+        this.splat = route.splat(path);
+        this.methodAllowed = true;
+        this.allowedMethods = Collections.emptySet();
+    }
+
+    public Route getRoute() {
+
+        return route;
+    }
+
+    /**
+     * @return the value of the named parameter, or null if the
+     *         route has no named parameter with the given name
+     */
+    public String getNamedParameter(String paramName) {
+
+        int index = route.getNamedParameterIndex(paramName);
+        return index == -1 ? null : namedParameters[index];
+    }
+
+    /**
+     * @param index the position of the named parameter amongst the
+     *              named parameters of the route
+     *              (see {@link Route#getNamedParameterIndex(String)})
+     * @return the value of the named parameter at the given index
+     */
+    public String getNamedParameter(int index) {
+
+        return namedParameters[index];
+    }
+
+    /**
+     * @return the value of the splat parameter at the given index,
+     *         or null if the splat parameter index does not exist
+     */
+    public String getSplatParameter(int index) {
+
+        if (index < 0 || index > splat.length - 1) {
+            return null;
+        }
+        return splat[index];
+    }
+
+    public String[] splat() {
+
+        return splat.clone();
+    }
+
+    /**
+     * @return false if the route matches the path, but was
+     *         added for a different method than the one requested
+     */
+    public boolean isMethodAllowed() {
+
+        return methodAllowed;
+    }
+
+    /**
+     * @return the methods that routes were added with for the path,
+     *         which are empty if the path was routed without a method,
+     *         or its routes were added without methods
+     */
+    public Set<String> getAllowedMethods() {
+
+        return allowedMethods;
+    }
+
+    public String toString() {
+
+        return route.toString();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+/**
+ * Thrown when a route path is not valid route syntax. The message
+ * gives the position of the error in the path.
+ * 
+ * @author Luis Antunes
+ */
+public class RouteSyntaxException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+    
+    private final String description;
+    private final String path;
+    private final int index;
+    
+    public RouteSyntaxException(String description, String path, int index) {
+        
+        super(description + " at index " + index + " of route path: " + path);
+        this.description = description;
+        this.path = path;
+        this.index = index;
+    }
+    
+    public String getDescription() {
+        return description;
+    }
+    
+    public String getPath() {
+        return path;
+    }
+    
+    /**
+     * Returns the index of the error in the path, or -1 if
+     * it is not known.
+     */
+    public int getIndex() {
+        return index;
+    }
+}
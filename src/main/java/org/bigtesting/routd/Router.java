@@ -23,6 +23,25 @@ public interface Router {
 
     void add(Route route);
     
+    /**
+     * Removes the given route, however it was added. Lookups may run
+     * while it is removed; each sees the route either before or after.
+     * 
+     *  @return true if the route was removed, or false if it had
+     *          not been added
+     */
+    boolean remove(Route route);
+    
+    /**
+     * Replaces the given route with another, added in the same way as
+     * the route it replaces. Lookups may run while it is replaced; each
+     * sees either the old route or the new one, and never neither.
+     * 
+     *  @return true if the route was replaced, or false if it had not
+     *          been added, in which case the replacement is not added
+     */
+    boolean replace(Route route, Route replacement);
+    
     /**
      * Returns a Route that matches the given URL path.
      * Note that the path may be expected to be an undecoded
@@ -34,4 +53,16 @@ public interface Router {
      *  @return the matching route, or null if none is found
      */
     Route route(String path);
+    
+    /**
+     * Returns a RouteMatch for the Route that matches the given URL 
+     * path, which holds the values of the route's parameters in the
+     * path. The same URL encoding requirements as for 
+     * {@link #route(String)} apply.
+     * 
+     *  @param path a decoded or undecoded URL path, 
+     *              depending on the Router implementation
+     *  @return the match, or null if no matching route is found
+     */
+    RouteMatch match(String path);
 }
@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Records how a router is used: the number of lookups that found a route,
+ * per route, the number that found none, and a histogram of how long the
+ * lookups took. A TreeRouter given the metrics also records, for each of
+ * its searches, the nodes it visited, the regexes it evaluated, and the
+ * times it had to backtrack, and a VersionedRouter records each reload of
+ * its route table: the version and size of the active table, and how long
+ * it took to build.
+ * <p>
+ * The counts are kept in striped counters, so recording them costs little,
+ * even when many threads are routing at once. They are read through a 
+ * {@link Snapshot}, or through JMX once the metrics are registered as an
+ * MXBean.
+ */
+public class RouterMetrics {
+
+    /*
+     * latencies are counted in buckets by their power of two in nanoseconds;
+     * bucket i holds latencies of at least 2^(i-1), and less than 2^i
+     */
+    private static final int LATENCY_BUCKETS = 64;
+
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final ConcurrentMap<Route, StripedCounter> routeHits = 
+            new ConcurrentHashMap<Route, StripedCounter>();
+    private final StripedCounter[] latencies = new StripedCounter[LATENCY_BUCKETS];
+
+    private final StripedCounter searches = new StripedCounter();
+    private final StripedCounter nodesVisited = new StripedCounter();
+    private final StripedCounter regexEvaluations = new StripedCounter();
+    private final StripedCounter backtracks = new StripedCounter();
+
+    private final StripedCounter reloads = new StripedCounter();
+    private volatile Reload lastReload = Reload.NONE;
+
+    public RouterMetrics() {
+
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            latencies[i] = new StripedCounter();
+        }
+    }
+
+    /**
+     * Records a lookup that found the given route.
+     * 
+     * @param route the route found
+     * @param nanos the time the lookup took, in nanoseconds
+     */
+    public void recordHit(Route route, long nanos) {
+
+        hits.increment();
+        StripedCounter counter = routeHits.get(route);
+        if (counter == null) {
+            StripedCounter newCounter = new StripedCounter();
+            counter = routeHits.putIfAbsent(route, newCounter);
+            if (counter == null) counter = newCounter;
+        }
+        counter.increment();
+        recordLatency(nanos);
+    }
+
+    /**
+     * Forgets the hits recorded for the given route, once it has been
+     * removed from the router, so that the metrics do not keep a count
+     * for every route the router has ever had.
+     */
+    public void forget(Route route) {
+
+        routeHits.remove(route);
+    }
+
+    /**
+     * Records a lookup that found no route.
+     * 
+     * @param nanos the time the lookup took, in nanoseconds
+     */
+    public void recordMiss(long nanos) {
+
+        misses.increment();
+        recordLatency(nanos);
+    }
+
+    private void recordLatency(long nanos) {
+
+        latencies[64 - Long.numberOfLeadingZeros(Math.max(nanos, 0))].increment();
+    }
+
+    /**
+     * Records the work done by a single search of a router's tree.
+     */
+    public void recordSearch(int nodesVisited, int regexEvaluations, int backtracks) {
+
+        searches.increment();
+        this.nodesVisited.add(nodesVisited);
+        if (regexEvaluations > 0) this.regexEvaluations.add(regexEvaluations);
+        if (backtracks > 0) this.backtracks.add(backtracks);
+    }
+
+    /**
+     * Records the publication of a new route table.
+     * 
+     * @param version the version of the table
+     * @param routeCount the number of routes in the table
+     * @param buildNanos the time it took to build the table, in nanoseconds
+     */
+    public void recordReload(long version, int routeCount, long buildNanos) {
+
+        reloads.increment();
+        lastReload = new Reload(version, routeCount, buildNanos);
+    }
+
+    public Snapshot snapshot() {
+
+        Map<Route, Long> hitsByRoute = new HashMap<Route, Long>();
+        for (Map.Entry<Route, StripedCounter> entry : routeHits.entrySet()) {
+            hitsByRoute.put(entry.getKey(), entry.getValue().sum());
+        }
+        long[] latencyCounts = new long[LATENCY_BUCKETS];
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            latencyCounts[i] = latencies[i].sum();
+        }
+        return new Snapshot(hits.sum(), misses.sum(), hitsByRoute, latencyCounts,
+                searches.sum(), nodesVisited.sum(), regexEvaluations.sum(), backtracks.sum(),
+                reloads.sum(), lastReload);
+    }
+
+    public void reset() {
+
+        hits.reset();
+        misses.reset();
+        routeHits.clear();
+        for (StripedCounter counter : latencies) {
+            counter.reset();
+        }
+        searches.reset();
+        nodesVisited.reset();
+        regexEvaluations.reset();
+        backtracks.reset();
+        /* the active table is still active, so only the count of reloads is reset */
+        reloads.reset();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, as an MXBean
+     * with the given name.
+     */
+    public void registerMBean(ObjectName name) throws JMException {
+
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBean(this), name);
+    }
+
+    public void unregisterMBean(ObjectName name) throws JMException {
+
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+
+    /**
+     * The counts recorded by the metrics at one point in time.
+     */
+    public static class Snapshot {
+
+        private final long hitCount;
+        private final long missCount;
+        private final Map<Route, Long> routeHits;
+        private final long[] latencyCounts;
+        private final long searchCount;
+        private final long nodesVisited;
+        private final long regexEvaluations;
+        private final long backtracks;
+        private final long reloadCount;
+        private final Reload lastReload;
+
+        Snapshot(long hitCount, long missCount, Map<Route, Long> routeHits, long[] latencyCounts,
+                long searchCount, long nodesVisited, long regexEvaluations, long backtracks,
+                long reloadCount, Reload lastReload) {
+
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.routeHits = Collections.unmodifiableMap(routeHits);
+            this.latencyCounts = latencyCounts;
+            this.searchCount = searchCount;
+            this.nodesVisited = nodesVisited;
+            this.regexEvaluations = regexEvaluations;
+            this.backtracks = backtracks;
+            this.reloadCount = reloadCount;
+            this.lastReload = lastReload;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public long getHitCount(Route route) {
+
+            Long count = routeHits.get(route);
+            return count == null ? 0 : count;
+        }
+
+        public Map<Route, Long> getRouteHits() {
+            return routeHits;
+        }
+
+        /**
+         * Returns the number of lookups whose latency fell in each bucket,
+         * where bucket i holds latencies of at least 2^(i-1), and less than 
+         * 2^i, nanoseconds. Bucket 0 holds latencies of 0.
+         */
+        public long[] getLatencyHistogram() {
+            return latencyCounts.clone();
+        }
+
+        /**
+         * Returns an upper bound, in nanoseconds, on the latency of the 
+         * given fraction of lookups, accurate to within a factor of two.
+         * 
+         * @param fraction between 0 and 1, such as 0.99 for the 99th percentile
+         */
+        public long getLatencyPercentile(double fraction) {
+
+            long total = 0;
+            for (long count : latencyCounts) total += count;
+            if (total == 0) return 0;
+
+            long rank = (long)Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < latencyCounts.length; i++) {
+                seen += latencyCounts[i];
+                if (seen >= rank && seen > 0) return i == 63 ? Long.MAX_VALUE : 1L << i;
+            }
+            return Long.MAX_VALUE;
+        }
+
+        public long getSearchCount() {
+            return searchCount;
+        }
+
+        public long getNodesVisited() {
+            return nodesVisited;
+        }
+
+        public long getRegexEvaluations() {
+            return regexEvaluations;
+        }
+
+        public long getBacktracks() {
+            return backtracks;
+        }
+
+        public long getReloadCount() {
+            return reloadCount;
+        }
+
+        /**
+         * Returns the version of the route table last published, or 0
+         * if none has been.
+         */
+        public long getActiveVersion() {
+            return lastReload.version;
+        }
+
+        public int getActiveRouteCount() {
+            return lastReload.routeCount;
+        }
+
+        /**
+         * Returns the time it took to build the route table last 
+         * published, in nanoseconds.
+         */
+        public long getLastBuildNanos() {
+            return lastReload.buildNanos;
+        }
+    }
+
+    /* the route table last published, read as a whole */
+    private static final class Reload {
+
+        static final Reload NONE = new Reload(0, 0, 0);
+
+        final long version;
+        final int routeCount;
+        final long buildNanos;
+
+        Reload(long version, int routeCount, long buildNanos) {
+            this.version = version;
+            this.routeCount = routeCount;
+            this.buildNanos = buildNanos;
+        }
+    }
+
+    private static class MXBean implements RouterMetricsMXBean {
+
+        private final RouterMetrics metrics;
+
+        MXBean(RouterMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        public long getHitCount() {
+            return metrics.hits.sum();
+        }
+
+        public long getMissCount() {
+            return metrics.misses.sum();
+        }
+
+        public Map<String, Long> getRouteHits() {
+
+            Map<String, Long> hits = new LinkedHashMap<String, Long>();
+            for (Map.Entry<Route, Long> entry : metrics.snapshot().getRouteHits().entrySet()) {
+                hits.put(entry.getKey().toString(), entry.getValue());
+            }
+            return hits;
+        }
+
+        public long getMedianLatencyNanos() {
+            return metrics.snapshot().getLatencyPercentile(0.5);
+        }
+
+        public long getLatency99thPercentileNanos() {
+            return metrics.snapshot().getLatencyPercentile(0.99);
+        }
+
+        public long getSearchCount() {
+            return metrics.searches.sum();
+        }
+
+        public long getNodesVisited() {
+            return metrics.nodesVisited.sum();
+        }
+
+        public long getRegexEvaluations() {
+            return metrics.regexEvaluations.sum();
+        }
+
+        public long getBacktracks() {
+            return metrics.backtracks.sum();
+        }
+
+        public long getReloadCount() {
+            return metrics.reloads.sum();
+        }
+
+        public long getActiveVersion() {
+            return metrics.lastReload.version;
+        }
+
+        public int getActiveRouteCount() {
+            return metrics.lastReload.routeCount;
+        }
+
+        public long getLastBuildNanos() {
+            return metrics.lastReload.buildNanos;
+        }
+
+        public void reset() {
+            metrics.reset();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import java.util.Map;
+
+/**
+ * The view of a router's metrics through JMX.
+ * 
+ * @see RouterMetrics#registerMBean(javax.management.ObjectName)
+ */
+public interface RouterMetricsMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    /* the hits of each route, keyed by the route's path */
+    Map<String, Long> getRouteHits();
+
+    long getMedianLatencyNanos();
+
+    long getLatency99thPercentileNanos();
+
+    long getSearchCount();
+
+    long getNodesVisited();
+
+    long getRegexEvaluations();
+
+    long getBacktracks();
+
+    long getReloadCount();
+
+    long getActiveVersion();
+
+    int getActiveRouteCount();
+
+    long getLastBuildNanos();
+
+    void reset();
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a token matches a path element. Each kind of element
+ * gets the cheapest matcher that agrees with the element's regex: a named
+ * parameter without a custom regex matches any token but the separator,
+ * a static element compares the token's characters, and a custom regex
+ * made up of a single character class, such as [0-9]+, is scanned by
+ * hand. Only other custom regexes are evaluated as a regex.
+ */
+abstract class SegmentMatcher {
+
+    /* matches any token but the trailing separator token */
+    static final SegmentMatcher NAMED = new SegmentMatcher() {
+
+        boolean matches(CharSequence s, int start, int end) {
+
+            if (start == end) return false;
+            for (int i = start; i < end; i++) {
+                if (s.charAt(i) == '/') return false;
+            }
+            return true;
+        }
+
+        boolean matches(PathTokenizer tokens, int index) {
+            /* a token never contains a separator, unless it is the separator token */
+            return !tokens.isSeparator(index);
+        }
+    };
+
+    /*
+     * agrees with ^(.*)$, which matches any token without a line
+     * terminator, other than one at the end
+     */
+    static final SegmentMatcher SPLAT = new SegmentMatcher() {
+
+        boolean matches(CharSequence s, int start, int end) {
+
+            return indexOfLineTerminator(s, start, end) >= end - trailingLineTerminator(s, start, end);
+        }
+    };
+
+    static SegmentMatcher forElement(PathElement elem) {
+
+        if (elem instanceof SplatParameterElement) {
+            return SPLAT;
+        }
+        if (elem instanceof NamedParameterElement) {
+            NamedParameterElement namedElem = (NamedParameterElement)elem;
+            if (!namedElem.hasRegex()) return NAMED;
+            SegmentMatcher scanner = CharClassMatcher.parse(namedElem.regex());
+            if (scanner != null) return scanner;
+            return new RegexMatcher("^(" + namedElem.regex() + ")$", RegexPrefilter.parse(namedElem.regex()));
+        }
+        return new LiteralMatcher(elem.name());
+    }
+
+    /**
+     * Returns whether the given region of the character sequence
+     * matches.
+     */
+    abstract boolean matches(CharSequence s, int start, int end);
+
+    boolean matches(String token) {
+
+        return matches(token, 0, token.length());
+    }
+
+    boolean matches(PathTokenizer tokens, int index) {
+
+        return matches(tokens.source(index), tokens.start(index), tokens.end(index));
+    }
+
+    /**
+     * Returns whether the token may match, without evaluating a regex; 
+     * if it returns false, the token certainly does not match.
+     */
+    boolean mayMatch(PathTokenizer tokens, int index) {
+        return true;
+    }
+
+    /**
+     * Returns whether a token that {@link #mayMatch} accepted matches,
+     * without asking the prefilter again.
+     */
+    boolean regexMatches(PathTokenizer tokens, int index) {
+        return matches(tokens, index);
+    }
+
+    /* whether the matcher evaluates a regex */
+    boolean isRegex() {
+        return false;
+    }
+
+    static boolean isLineTerminator(char ch) {
+        return ch == '\n' || ch == '\r' || ch == '\u0085' || ch == '\u2028' || ch == '\u2029';
+    }
+
+    private static int indexOfLineTerminator(CharSequence s, int start, int end) {
+
+        for (int i = start; i < end; i++) {
+            if (isLineTerminator(s.charAt(i))) return i;
+        }
+        return end;
+    }
+
+    /*
+     * Returns the length of the line terminator at the end of the region,
+     * before which $ also matches, or 0 if there is none.
+     */
+    private static int trailingLineTerminator(CharSequence s, int start, int end) {
+
+        if (end - start >= 2 && s.charAt(end - 2) == '\r' && s.charAt(end - 1) == '\n') return 2;
+        if (end > start && isLineTerminator(s.charAt(end - 1))) return 1;
+        return 0;
+    }
+
+    private static final class LiteralMatcher extends SegmentMatcher {
+
+        private final String literal;
+
+        LiteralMatcher(String literal) {
+            this.literal = literal;
+        }
+
+        boolean matches(CharSequence s, int start, int end) {
+
+            return end - start == literal.length() &&
+                    PathTokenizer.regionMatches(literal, 0, s, start, literal.length());
+        }
+    }
+
+    /*
+     * matches a regex made up of one character class and a quantifier,
+     * such as [0-9]+, [a-zA-Z_]{2,8}, or \d*, by scanning the token
+     */
+    static final class CharClassMatcher extends SegmentMatcher {
+
+        private static final int UNBOUNDED = Integer.MAX_VALUE;
+
+        /* the ASCII characters in the class; no other characters are, unless it is negated */
+        private final boolean[] members;
+        private final boolean negated;
+        private final int minLength;
+        private final int maxLength;
+
+        private CharClassMatcher(boolean[] members, boolean negated, int minLength, int maxLength) {
+
+            this.members = members;
+            this.negated = negated;
+            this.minLength = minLength;
+            this.maxLength = maxLength;
+        }
+
+        boolean matches(CharSequence s, int start, int end) {
+
+            if (scan(s, start, end)) return true;
+            int terminator = trailingLineTerminator(s, start, end);
+            return terminator > 0 && scan(s, start, end - terminator);
+        }
+
+        /*
+         * the length is counted in code points, as the regex counts it; 
+         * only a negated class can match a supplementary character, whose
+         * surrogate pair is a single code point that is not in the class
+         */
+        private boolean scan(CharSequence s, int start, int end) {
+
+            int length = end - start;
+            if (length < minLength || (length > maxLength && !negated)) return false;
+            int codePoints = 0;
+            for (int i = start; i < end; i++) {
+                char ch = s.charAt(i);
+                if ((ch < 128 && members[ch]) == negated) return false;
+                if (Character.isHighSurrogate(ch) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) i++;
+                codePoints++;
+            }
+            return codePoints >= minLength && codePoints <= maxLength;
+        }
+
+        /**
+         * Returns a scanner for the regex, or null if the regex is not
+         * one that can be scanned by hand.
+         */
+        static CharClassMatcher parse(String regex) {
+
+            boolean[] members = new boolean[128];
+            boolean negated = false;
+            int i;
+            if (regex.startsWith("\\d") || regex.startsWith("\\w")) {
+
+                addShorthand(members, regex.charAt(1));
+                i = 2;
+
+            } else if (regex.startsWith("[")) {
+
+                i = 1;
+                if (i < regex.length() && regex.charAt(i) == '^') {
+                    negated = true;
+                    i++;
+                }
+                int classStart = i;
+                boolean closed = false;
+                while (i < regex.length()) {
+
+                    char ch = regex.charAt(i);
+                    if (ch == ']' && i > classStart) {
+                        closed = true;
+                        i++;
+                        break;
+                    }
+                    int first = classChar(regex, i);
+                    if (first == -1) {
+                        /* a shorthand class, such as \d, within the class */
+                        if (i + 1 >= regex.length() || !addShorthand(members, regex.charAt(i + 1))) return null;
+                        i += 2;
+                        continue;
+                    }
+                    if (first < 0) return null;
+                    i += ch == '\\' ? 2 : 1;
+                    int last = first;
+                    if (i + 1 < regex.length() && regex.charAt(i) == '-' && regex.charAt(i + 1) != ']') {
+                        last = classChar(regex, i + 1);
+                        if (last < first) return null;
+                        i += regex.charAt(i + 1) == '\\' ? 3 : 2;
+                    }
+                    for (int c = first; c <= last; c++) {
+                        members[c] = true;
+                    }
+                }
+                if (!closed) return null;
+
+            } else {
+                return null;
+            }
+
+            int min;
+            int max;
+            String quantifier = regex.substring(i);
+            if (quantifier.length() == 0) {
+                min = max = 1;
+            } else if (quantifier.equals("+")) {
+                min = 1;
+                max = UNBOUNDED;
+            } else if (quantifier.equals("*")) {
+                min = 0;
+                max = UNBOUNDED;
+            } else if (quantifier.equals("?")) {
+                min = 0;
+                max = 1;
+            } else if (quantifier.matches("\\{\\d{1,4}(,\\d{0,4})?\\}")) {
+                String bounds = quantifier.substring(1, quantifier.length() - 1);
+                int comma = bounds.indexOf(',');
+                if (comma == -1) {
+                    min = max = Integer.parseInt(bounds);
+                } else {
+                    min = Integer.parseInt(bounds.substring(0, comma));
+                    max = comma == bounds.length() - 1 ? UNBOUNDED : Integer.parseInt(bounds.substring(comma + 1));
+                    if (max < min) return null;
+                }
+            } else {
+                return null;
+            }
+            return new CharClassMatcher(members, negated, min, max);
+        }
+
+        /*
+         * Returns the character at the given index of a class, -1 for a
+         * shorthand class, or -2 if it is not an ASCII letter, digit, or
+         * one of a few plainly literal characters.
+         */
+        private static int classChar(String regex, int i) {
+
+            char ch = regex.charAt(i);
+            if (ch == '\\') {
+                if (i + 1 >= regex.length()) return -2;
+                char escaped = regex.charAt(i + 1);
+                if (escaped == 'd' || escaped == 'w') return -1;
+                return "-.[]\\^_~!$&'()*+,;=:@%".indexOf(escaped) >= 0 ? escaped : -2;
+            }
+            if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')) return ch;
+            return "-._~!$'()*+,;=:@%".indexOf(ch) >= 0 ? ch : -2;
+        }
+
+        private static boolean addShorthand(boolean[] members, char shorthand) {
+
+            if (shorthand != 'd' && shorthand != 'w') return false;
+            for (int c = '0'; c <= '9'; c++) members[c] = true;
+            if (shorthand == 'w') {
+                for (int c = 'a'; c <= 'z'; c++) members[c] = true;
+                for (int c = 'A'; c <= 'Z'; c++) members[c] = true;
+                members['_'] = true;
+            }
+            return true;
+        }
+    }
+
+    static final class RegexMatcher extends SegmentMatcher {
+        
+        /* rejects most tokens the regex cannot match without evaluating it, or null */
+        private final RegexPrefilter prefilter;
+
+        /*
+         * From the Java API documentation for the Pattern class:
+         * Instances of this (Pattern) class are immutable and are safe for use by
+         * multiple concurrent threads. Instances of the Matcher class are not
+         * safe for such use.
+         */
+        private final Pattern pattern;
+        private final ThreadMatcher matcher;
+
+        /*
+         * the regex is compiled here, so that an invalid regex is rejected 
+         * when its route is added, rather than when a path is routed
+         */
+        RegexMatcher(String regex, RegexPrefilter prefilter) {
+            
+            this.prefilter = prefilter;
+            this.pattern = Pattern.compile(regex);
+            this.matcher = new ThreadMatcher(pattern);
+        }
+
+        Pattern pattern() {
+            return pattern;
+        }
+
+        boolean matches(CharSequence s, int start, int end) {
+
+            if (prefilter != null && !prefilter.accepts(s, start, end)) return false;
+            return evaluate(s, start, end);
+        }
+
+        boolean mayMatch(PathTokenizer tokens, int index) {
+            
+            return prefilter == null || 
+                    prefilter.accepts(tokens.source(index), tokens.start(index), tokens.end(index));
+        }
+
+        boolean regexMatches(PathTokenizer tokens, int index) {
+            
+            return evaluate(tokens.source(index), tokens.start(index), tokens.end(index));
+        }
+
+        private boolean evaluate(CharSequence s, int start, int end) {
+            
+            /*
+             * the region's bounds are anchoring, so ^ and $ match at its start 
+             *   and end; as the regex begins with ^, it can only match at the 
+             *   start, so there is no need to find() it further on
+             */
+            return matcher.reset(s).region(start, end).lookingAt();
+        }
+
+        boolean isRegex() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A hash table keyed by path segments, which can be queried with a
+ * region of a larger string, such as a token in a path, without first
+ * creating a string for the region.
+ * <p>
+ * Entries are added and removed by one thread at a time, and can be
+ * looked up by other threads while they are: each key is written after its
+ * value, so a reader that sees a key also sees its value, and a full table
+ * is replaced, rather than modified, when it grows. A removed entry keeps
+ * its key, with no value, so that lookups can still probe past it; such
+ * entries are dropped when the table is next replaced.
+ */
+class SegmentTable<V> {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    /* the key of each slot, followed by its value */
+    private volatile AtomicReferenceArray<Object> table = 
+            new AtomicReferenceArray<Object>(INITIAL_CAPACITY * 2);
+    private volatile int size;
+    
+    /* the slots with a key, including those of removed entries */
+    private int used;
+
+    public V get(String key) {
+
+        return get(key, 0, key.length());
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(CharSequence s, int start, int end) {
+
+        AtomicReferenceArray<Object> table = this.table;
+        int length = end - start;
+        int mask = (table.length() >> 1) - 1;
+        for (int i = hash(s, start, end) & mask; ; i = (i + 1) & mask) {
+            String key = (String)table.get(i << 1);
+            if (key == null) return null;
+            if (key.length() == length && PathTokenizer.regionMatches(key, 0, s, start, length)) {
+                /* null if the entry was removed */
+                return (V)table.get((i << 1) + 1);
+            }
+        }
+    }
+
+    public boolean containsKey(String key) {
+
+        return get(key) != null;
+    }
+
+    public void put(String key, V value) {
+
+        if ((used + 1) * 2 > table.length() >> 1) {
+            resize();
+        }
+        
+        AtomicReferenceArray<Object> table = this.table;
+        int i = slot(table, key);
+        if (table.get(i << 1) == null) {
+            table.set((i << 1) + 1, value);
+            table.set(i << 1, key);
+            used++;
+            size++;
+        } else {
+            if (table.get((i << 1) + 1) == null) size++;
+            table.set((i << 1) + 1, value);
+        }
+    }
+    
+    /**
+     * Removes the entry for the key, if there is one.
+     * 
+     * @return true if there was an entry for the key
+     */
+    public boolean remove(String key) {
+        
+        AtomicReferenceArray<Object> table = this.table;
+        int i = slot(table, key);
+        if (table.get(i << 1) == null || table.get((i << 1) + 1) == null) return false;
+        table.set((i << 1) + 1, null);
+        size--;
+        return true;
+    }
+
+    public int size() {
+
+        return size;
+    }
+
+    /**
+     * Returns the values in the table, in no particular order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+
+        AtomicReferenceArray<Object> table = this.table;
+        List<V> values = new ArrayList<V>(size);
+        for (int i = 0; i < table.length(); i += 2) {
+            V value = (V)table.get(i + 1);
+            if (table.get(i) != null && value != null) values.add(value);
+        }
+        return values;
+    }
+
+    /*
+     * replaces the table with one, without the removed entries, that is
+     * at most a quarter full, so that a table whose entries are constantly
+     * added and removed is not replaced on every put
+     */
+    private void resize() {
+
+        int capacity = INITIAL_CAPACITY;
+        while ((size + 1) * 4 > capacity) capacity *= 2;
+        
+        AtomicReferenceArray<Object> table = this.table;
+        AtomicReferenceArray<Object> newTable = new AtomicReferenceArray<Object>(capacity * 2);
+        for (int i = 0; i < table.length(); i += 2) {
+            Object key = table.get(i);
+            Object value = table.get(i + 1);
+            if (key != null && value != null) {
+                int slot = slot(newTable, (String)key);
+                newTable.set((slot << 1) + 1, value);
+                newTable.set(slot << 1, key);
+            }
+        }
+        this.table = newTable;
+        used = size;
+    }
+
+    /*
+     * returns the slot of the key, or if it is not in the table,
+     * the empty slot it would be put in
+     */
+    private static int slot(AtomicReferenceArray<Object> table, String key) {
+
+        int mask = (table.length() >> 1) - 1;
+        int i = hash(key, 0, key.length()) & mask;
+        for (; table.get(i << 1) != null; i = (i + 1) & mask) {
+            if (table.get(i << 1).equals(key)) return i;
+        }
+        return i;
+    }
+
+    /*
+     * the same hash as String.hashCode() for the region,
+     * with the high bits spread into the low bits
+     */
+    private static int hash(CharSequence s, int start, int end) {
+
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,666 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An immutable Router that routes over a binary snapshot of a TreeRouter,
+ * such as one written to a file with {@link #write(TreeRouter, File)} and
+ * memory-mapped when the router is created. Nothing is built when the
+ * snapshot is loaded: the tree is searched in the snapshot itself, where
+ * the children of each node are held in order of precedence, with the 
+ * static children sorted by their segments. A Route is only created the 
+ * first time it is matched, and a custom regex is only compiled the first 
+ * time it is evaluated. It routes paths in the same way as the TreeRouter
+ * the snapshot was written from.
+ * <p>
+ * A snapshot is a sequence of big-endian ints and chars. It begins with
+ * a header, followed by the strings (an int length, then the chars), the
+ * nodes, each written after its children, and the tables of the routes 
+ * and regexes, which are referred to by their index in the table. A node 
+ * is written as its route for any method, its method routes, and then its 
+ * splat, static and named children, each preceded by their number.
+ */
+public class SnapshotRouter implements MethodRouter {
+    
+    private static final int MAGIC = 0x52545331;
+    private static final int VERSION = 1;
+    
+    private static final int ROOT = 8;
+    private static final int MAX_BACKTRACKS = 12;
+    private static final int ROUTE_TABLE = 16;
+    private static final int REGEX_TABLE = 20;
+    private static final int HEADER_SIZE = 24;
+    
+    private static final int NONE = -1;
+    
+    /*
+     * the snapshot is only read with absolute gets, which do not change
+     * the buffer's state, so it is safe to share among threads
+     */
+    private final ByteBuffer buffer;
+    
+    private final int root;
+    private final int maxBacktracks;
+    private final int routeTable;
+    private final int regexTable;
+    
+    private final AtomicReferenceArray<Route> routes;
+    private final AtomicReferenceArray<SegmentMatcher> matchers;
+    
+    /**
+     * Creates a router over the snapshot in the given file, which
+     * is memory-mapped.
+     */
+    public SnapshotRouter(File file) throws IOException {
+        
+        this(map(file));
+    }
+    
+    /**
+     * Creates a router over the snapshot that begins at the buffer's
+     * position. The buffer's content must not be changed afterwards.
+     */
+    public SnapshotRouter(ByteBuffer buffer) {
+        
+        this.buffer = buffer.slice();
+        if (this.buffer.remaining() < HEADER_SIZE || this.buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("not a route snapshot");
+        }
+        if (this.buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("unsupported route snapshot version: " + this.buffer.getInt(4));
+        }
+        this.root = this.buffer.getInt(ROOT);
+        this.maxBacktracks = this.buffer.getInt(MAX_BACKTRACKS);
+        this.routeTable = this.buffer.getInt(ROUTE_TABLE);
+        this.regexTable = this.buffer.getInt(REGEX_TABLE);
+        this.routes = new AtomicReferenceArray<Route>(this.buffer.getInt(routeTable));
+        this.matchers = new AtomicReferenceArray<SegmentMatcher>(this.buffer.getInt(regexTable));
+    }
+    
+    private static ByteBuffer map(File file) throws IOException {
+        
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            /* the mapping remains valid once the file is closed */
+            FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Writes a snapshot of the router's current routes to the given file.
+     */
+    public static void write(TreeRouter router, File file) throws IOException {
+        
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            write(router, out);
+        } finally {
+            out.close();
+        }
+    }
+    
+    /**
+     * Writes a snapshot of the router's current routes to the given stream.
+     */
+    public static void write(TreeRouter router, OutputStream out) throws IOException {
+        
+        out.write(new Writer().write(router));
+        out.flush();
+    }
+    
+    public void add(Route route) {
+        
+        throw new UnsupportedOperationException("routes cannot be added to a snapshot router");
+    }
+    
+    public void add(String method, Route route) {
+        
+        throw new UnsupportedOperationException("routes cannot be added to a snapshot router");
+    }
+    
+    public boolean remove(Route route) {
+        
+        throw new UnsupportedOperationException("routes cannot be removed from a snapshot router");
+    }
+    
+    public boolean replace(Route route, Route replacement) {
+        
+        throw new UnsupportedOperationException("routes cannot be replaced in a snapshot router");
+    }
+    
+    /**
+     * Returns a Route that matches the given URL path.
+     * Note that the path is expected to be an undecoded URL path.
+     * The router will handle any decoding that might be required.
+     *
+     *  @param path an undecoded URL path
+     *  @return the matching route, or null if none is found
+     */
+    public Route route(String path) {
+        
+        return route(PathSearch.begin(path));
+    }
+    
+    public Route route(CharSequence path) {
+        
+        return route(PathSearch.begin(path));
+    }
+    
+    public Route route(ByteBuffer buffer, int offset, int length) {
+        
+        return route(PathSearch.begin(buffer, offset, length));
+    }
+    
+    private Route route(PathSearch search) {
+        
+        try {
+            int node = search(search);
+            return node == NONE ? null : routeOf(node);
+        } finally {
+            search.clear();
+        }
+    }
+    
+    public RouteMatch match(String path) {
+        
+        return match(PathSearch.begin(path));
+    }
+    
+    public RouteMatch match(CharSequence path) {
+        
+        return match(PathSearch.begin(path));
+    }
+    
+    public RouteMatch match(ByteBuffer buffer, int offset, int length) {
+        
+        return match(PathSearch.begin(buffer, offset, length));
+    }
+    
+    private RouteMatch match(PathSearch search) {
+        
+        try {
+            int node = search(search);
+            Route route = node == NONE ? null : routeOf(node);
+            return route == null ? null : search.newMatch(route);
+        } finally {
+            search.clear();
+        }
+    }
+    
+    public Route route(String method, String path) {
+        
+        PathSearch search = PathSearch.begin(path);
+        try {
+            int node = search(search);
+            return node == NONE ? null : routeOf(node, method);
+        } finally {
+            search.clear();
+        }
+    }
+    
+    public RouteMatch match(String method, String path) {
+        
+        PathSearch search = PathSearch.begin(path);
+        try {
+            int node = search(search);
+            Route anyRoute = node == NONE ? null : routeOf(node);
+            if (anyRoute == null) return null;
+            Route route = routeOf(node, method);
+            boolean methodAllowed = route != null;
+            return search.newMatch(methodAllowed ? route : anyRoute, methodAllowed, allowedMethods(node));
+        } finally {
+            search.clear();
+        }
+    }
+    
+    /*
+     * the same search as the TreeRouter's, over the nodes of the snapshot
+     */
+    private int search(PathSearch search) {
+        
+        if (root == NONE) return NONE;
+        
+        PathTokenizer tokens = search.tokens;
+        
+        /* handle the case where path is '/' and route '/*' exists */
+        if (tokens.size() == 0 && splatCount(root) > 0 && !hasRoute(root)) {
+            search.captureSplat(0, true);
+            return splat(root, 0);
+        }
+        
+        int currentNode = root;
+        search.reach(0, root);
+        int i = 0;
+        int from = 0;
+        while (i < tokens.size()) {
+            
+            int next = choose(search, currentNode, i, from);
+            if (next == NONE) {
+                
+                /*
+                 * a dead end: go back to the previous token, and try the
+                 *   next candidate for it
+                 */
+                if (i == 0 || search.backtracks >= maxBacktracks) return NONE;
+                int k = i - 1;
+                int parent = search.position(k);
+                int candidate = search.candidate(k);
+                search.backtrack(k);
+                
+                /* a splat that has a route can instead match the rest of the path */
+                if (candidate < splatCount(parent) && hasRoute(splat(parent, candidate))) {
+                    search.captureSplat(k, true);
+                    return splat(parent, candidate);
+                }
+                currentNode = parent;
+                i = k;
+                from = candidate + 1;
+                continue;
+            }
+            
+            /* a named child has captured its token when it was chosen */
+            if (search.candidate(i) < splatCount(currentNode)) {
+                
+                boolean endsRoute = !hasChildren(next);
+                search.captureSplat(i, endsRoute);
+                if (endsRoute) return next;
+            }
+            i++;
+            search.reach(i, next);
+            currentNode = next;
+            from = 0;
+        }
+        
+        return currentNode;
+    }
+    
+    /*
+     * Returns the first child of the node, from the given candidate on,
+     * that matches the token at the given index, and records it as the
+     * search's choice. The candidates are numbered as the TreeNode's are:
+     * the splat children, then the static children named by the token, 
+     * then the named children.
+     */
+    private int choose(PathSearch search, int node, int i, int from) {
+        
+        PathTokenizer tokens = search.tokens;
+        
+        /*
+         * if there are no more tokens to process after this one,
+         *   only a candidate that has a route can match
+         */
+        boolean lastToken = i == tokens.size() - 1;
+        int splats = splatCount(node);
+        
+        int candidate = from;
+        for (; candidate < splats; candidate++) {
+            
+            int splat = splat(node, candidate);
+            if ((!lastToken || hasRoute(splat)) && SegmentMatcher.SPLAT.matches(tokens, i)) {
+                search.choose(i, null, candidate);
+                return splat;
+            }
+        }
+        
+        int staticTable = staticTable(node);
+        int first = firstStatic(staticTable, tokens.source(i), tokens.start(i), tokens.end(i));
+        int statics = 0;
+        if (first != NONE) {
+            int count = buffer.getInt(staticTable);
+            int segment = buffer.getInt(staticTable + 4 + first * 8);
+            /* equal segments are written once, so equally named children share a string */
+            while (first + statics < count && 
+                    buffer.getInt(staticTable + 4 + (first + statics) * 8) == segment) {
+                statics++;
+            }
+        }
+        for (; candidate < splats + statics; candidate++) {
+            
+            int next = buffer.getInt(staticTable + 4 + (first + candidate - splats) * 8 + 4);
+            if (!lastToken || hasRoute(next)) {
+                search.choose(i, null, candidate);
+                return next;
+            }
+        }
+        
+        int named = namedTable(node);
+        int count = buffer.getInt(named);
+        for (int j = candidate - splats - statics; j < count; j++) {
+            
+            int entry = named + 4 + j * 8;
+            int child = buffer.getInt(entry + 4);
+            if (lastToken && !hasRoute(child)) continue;
+            if (matcher(buffer.getInt(entry)).matches(tokens, i)) {
+                search.choose(i, null, splats + statics + j);
+                search.captureNamed(i);
+                return child;
+            }
+        }
+        return NONE;
+    }
+    
+    /*
+     * the index of the first static child for the given segment, found by a 
+     * binary search of the sorted segments, or NONE if there is none
+     */
+    private int firstStatic(int statics, CharSequence s, int start, int end) {
+        
+        int low = 0;
+        int high = buffer.getInt(statics) - 1;
+        int first = NONE;
+        while (low <= high) {
+            
+            int mid = (low + high) >>> 1;
+            int entry = statics + 4 + mid * 8;
+            int cmp = compare(buffer.getInt(entry), s, start, end);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else {
+                if (cmp == 0) first = mid;
+                high = mid - 1;
+            }
+        }
+        return first;
+    }
+    
+    /* compares the string at the given position with the region, as String.compareTo would */
+    private int compare(int string, CharSequence s, int start, int end) {
+        
+        int length = buffer.getInt(string);
+        int n = Math.min(length, end - start);
+        for (int i = 0; i < n; i++) {
+            char ch = buffer.getChar(string + 4 + i * 2);
+            char other = s.charAt(start + i);
+            if (ch != other) return ch - other;
+        }
+        return length - (end - start);
+    }
+    
+    private String string(int string) {
+        
+        char[] chars = new char[buffer.getInt(string)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = buffer.getChar(string + 4 + i * 2);
+        }
+        return new String(chars);
+    }
+    
+    private int methodCount(int node) {
+        return buffer.getInt(node + 4);
+    }
+    
+    private int splatTable(int node) {
+        return node + 8 + methodCount(node) * 8;
+    }
+    
+    private int staticTable(int node) {
+        
+        int splats = splatTable(node);
+        return splats + 4 + buffer.getInt(splats) * 4;
+    }
+    
+    private int namedTable(int node) {
+        
+        int statics = staticTable(node);
+        return statics + 4 + buffer.getInt(statics) * 8;
+    }
+    
+    private int splatCount(int node) {
+        return buffer.getInt(splatTable(node));
+    }
+    
+    private int splat(int node, int index) {
+        return buffer.getInt(splatTable(node) + 4 + index * 4);
+    }
+    
+    private boolean hasRoute(int node) {
+        return buffer.getInt(node) != NONE || methodCount(node) > 0;
+    }
+    
+    private boolean hasChildren(int node) {
+        
+        int statics = staticTable(node);
+        return splatCount(node) > 0 || buffer.getInt(statics) > 0 || 
+                buffer.getInt(namedTable(node)) > 0;
+    }
+    
+    /* the route added for any method, or else for the first method */
+    private Route routeOf(int node) {
+        
+        int route = buffer.getInt(node);
+        if (route == NONE && methodCount(node) > 0) route = buffer.getInt(node + 12);
+        return route == NONE ? null : route(route);
+    }
+    
+    /* the route added for the given method, or else for any method */
+    private Route routeOf(int node, String method) {
+        
+        int count = methodCount(node);
+        for (int i = 0; i < count; i++) {
+            int entry = node + 8 + i * 8;
+            int name = buffer.getInt(entry);
+            if (compare(name, method, 0, method.length()) == 0) {
+                return route(buffer.getInt(entry + 4));
+            }
+        }
+        int route = buffer.getInt(node);
+        return route == NONE ? null : route(route);
+    }
+    
+    private Set<String> allowedMethods(int node) {
+        
+        Set<String> allowed = new LinkedHashSet<String>();
+        int count = methodCount(node);
+        for (int i = 0; i < count; i++) {
+            allowed.add(string(buffer.getInt(node + 8 + i * 8)));
+        }
+        return allowed;
+    }
+    
+    /* parsed when first matched, as most routes of a large table never are at startup */
+    private Route route(int index) {
+        
+        Route route = routes.get(index);
+        if (route == null) {
+            route = new Route(string(buffer.getInt(routeTable + 4 + index * 4)));
+            routes.set(index, route);
+        }
+        return route;
+    }
+    
+    private SegmentMatcher matcher(int regex) {
+        
+        if (regex == NONE) return SegmentMatcher.NAMED;
+        SegmentMatcher matcher = matchers.get(regex);
+        if (matcher == null) {
+            String pattern = string(buffer.getInt(regexTable + 4 + regex * 4));
+            matcher = SegmentMatcher.forElement(new NamedParameterElement("", 0, pattern));
+            matchers.set(regex, matcher);
+        }
+        return matcher;
+    }
+    
+    /*
+     * writes the snapshot of a TreeRouter, with each string, route
+     * and regex written once
+     */
+    private static final class Writer {
+        
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+        private final Map<Route, Integer> routeIndexes = new IdentityHashMap<Route, Integer>();
+        private final List<Route> routes = new ArrayList<Route>();
+        private final Map<String, Integer> regexIndexes = new HashMap<String, Integer>();
+        private final List<String> regexes = new ArrayList<String>();
+        
+        byte[] write(TreeRouter router) throws IOException {
+            
+            /* the header is filled in once everything after it is written */
+            out.write(new byte[HEADER_SIZE]);
+            
+            TreeNode treeRoot = router.getRoot();
+            int root = treeRoot == null ? NONE : write(treeRoot);
+            
+            int[] routeStrings = new int[routes.size()];
+            for (int i = 0; i < routes.size(); i++) {
+                routeStrings[i] = string(routes.get(i).getResourcePath());
+            }
+            int[] regexStrings = new int[regexes.size()];
+            for (int i = 0; i < regexes.size(); i++) {
+                regexStrings[i] = string(regexes.get(i));
+            }
+            int routeTable = table(routeStrings);
+            int regexTable = table(regexStrings);
+            out.flush();
+            
+            byte[] snapshot = bytes.toByteArray();
+            ByteBuffer header = ByteBuffer.wrap(snapshot);
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(ROOT, root);
+            header.putInt(MAX_BACKTRACKS, router.getMaxBacktracks());
+            header.putInt(ROUTE_TABLE, routeTable);
+            header.putInt(REGEX_TABLE, regexTable);
+            return snapshot;
+        }
+        
+        private int write(TreeNode node) throws IOException {
+            
+            List<TreeNode> children = node.getChildren();
+            int[] positions = new int[children.size()];
+            int[] keys = new int[children.size()];
+            for (int i = 0; i < children.size(); i++) {
+                
+                TreeNode child = children.get(i);
+                positions[i] = write(child);
+                if (child.isStatic()) {
+                    keys[i] = string(child.getPathElement().name());
+                } else if (child.isNamedParameter()) {
+                    NamedParameterElement elem = (NamedParameterElement)child.getPathElement();
+                    keys[i] = elem.hasRegex() ? regex(elem.regex()) : NONE;
+                }
+            }
+            
+            MethodTable methodTable = node.getMethodTable();
+            Set<String> methods = methodTable.allowed();
+            int[] methodNames = new int[methods.size()];
+            int m = 0;
+            for (String method : methods) {
+                methodNames[m++] = string(method);
+            }
+            
+            int position = out.size();
+            out.writeInt(route(node.getAnyMethodRoute()));
+            out.writeInt(methods.size());
+            m = 0;
+            for (String method : methods) {
+                out.writeInt(methodNames[m++]);
+                out.writeInt(route(methodTable.get(method)));
+            }
+            
+            /* the children are already in order of precedence, with the statics sorted */
+            int splats = 0;
+            while (splats < children.size() && children.get(splats).isSplat()) splats++;
+            int statics = splats;
+            while (statics < children.size() && children.get(statics).isStatic()) statics++;
+            
+            out.writeInt(splats);
+            for (int i = 0; i < splats; i++) {
+                out.writeInt(positions[i]);
+            }
+            out.writeInt(statics - splats);
+            for (int i = splats; i < statics; i++) {
+                out.writeInt(keys[i]);
+                out.writeInt(positions[i]);
+            }
+            out.writeInt(children.size() - statics);
+            for (int i = statics; i < children.size(); i++) {
+                out.writeInt(keys[i]);
+                out.writeInt(positions[i]);
+            }
+            return position;
+        }
+        
+        private int table(int[] entries) throws IOException {
+            
+            int position = out.size();
+            out.writeInt(entries.length);
+            for (int entry : entries) {
+                out.writeInt(entry);
+            }
+            return position;
+        }
+        
+        private int string(String s) throws IOException {
+            
+            Integer position = strings.get(s);
+            if (position == null) {
+                position = out.size();
+                out.writeInt(s.length());
+                out.writeChars(s);
+                strings.put(s, position);
+            }
+            return position;
+        }
+        
+        private int route(Route route) {
+            
+            if (route == null) return NONE;
+            Integer index = routeIndexes.get(route);
+            if (index == null) {
+                index = routes.size();
+                routes.add(route);
+                routeIndexes.put(route, index);
+            }
+            return index;
+        }
+        
+        private int regex(String regex) {
+            
+            Integer index = regexIndexes.get(regex);
+            if (index == null) {
+                index = regexes.size();
+                regexes.add(regex);
+                regexIndexes.put(regex, index);
+            }
+            return index;
+        }
+    }
+}
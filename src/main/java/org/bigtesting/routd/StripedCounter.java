@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that threads can add to concurrently at little cost. It
+ * starts out as a single value; once threads are seen contending for it,
+ * it is spread over a number of cells, each on its own cache line, so 
+ * that threads adding to it rarely write to the same cell. The count is
+ * the sum of the value and the cells.
+ */
+class StripedCounter {
+
+    /* the longs between the cells in use, so that no two share a cache line */
+    private static final int PADDING = 8;
+
+    private static final int STRIPES = stripes();
+
+    private final AtomicLong base = new AtomicLong();
+    
+    /* created when an addition to the base first fails under contention */
+    private volatile AtomicLongArray cells;
+
+    private static int stripes() {
+
+        int stripes = 1;
+        int processors = Runtime.getRuntime().availableProcessors();
+        while (stripes < processors && stripes < 64) {
+            stripes *= 2;
+        }
+        return stripes;
+    }
+
+    public void increment() {
+
+        add(1);
+    }
+
+    public void add(long x) {
+
+        AtomicLongArray cells = this.cells;
+        if (cells == null) {
+            long b = base.get();
+            if (base.compareAndSet(b, b + x)) return;
+            cells = cells();
+        }
+        cells.getAndAdd(cell(), x);
+    }
+
+    private synchronized AtomicLongArray cells() {
+
+        if (cells == null) {
+            cells = new AtomicLongArray(STRIPES * PADDING);
+        }
+        return cells;
+    }
+
+    public long sum() {
+
+        long sum = base.get();
+        AtomicLongArray cells = this.cells;
+        if (cells != null) {
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * PADDING);
+            }
+        }
+        return sum;
+    }
+
+    public void reset() {
+
+        base.set(0);
+        AtomicLongArray cells = this.cells;
+        if (cells != null) {
+            for (int i = 0; i < STRIPES; i++) {
+                cells.set(i * PADDING, 0);
+            }
+        }
+    }
+
+    private static int cell() {
+
+        long id = Thread.currentThread().getId();
+        int h = (int)(id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h >>> 16) & (STRIPES - 1)) * PADDING;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A Matcher for a Pattern that each thread reuses. From the Java API
+ * documentation for the Pattern class: Instances of the Matcher class 
+ * are not safe for use by multiple concurrent threads. Creating one 
+ * for each match allocates its group arrays every time, however, so 
+ * each thread resets its own instead.
+ */
+final class ThreadMatcher extends ThreadLocal<Matcher> {
+
+    private final Pattern pattern;
+
+    ThreadMatcher(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    protected Matcher initialValue() {
+        return pattern.matcher("");
+    }
+
+    /**
+     * Returns the current thread's matcher, reset to match the given
+     * input. It may be used until the thread next calls this method.
+     */
+    Matcher reset(CharSequence input) {
+        return get().reset(input);
+    }
+}
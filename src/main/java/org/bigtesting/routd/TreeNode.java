@@ -18,9 +18,11 @@
 import static org.bigtesting.routd.RouteHelper.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -29,29 +31,63 @@
  */
 public class TreeNode {
     
-    private final List<TreeNode> children = new ArrayList<TreeNode>();
+    /* the ranks of the kinds of element, in order of precedence */
+    private static final int SPLAT_RANK = 0;
+    private static final int STATIC_RANK = 1;
+    private static final int NAMED_RANK = 2;
     
     /*
-     * From the Java API documentation for the Pattern class:
-     * Instances of this (Pattern) class are immutable and are safe for use by 
-     * multiple concurrent threads. Instances of the Matcher class are not 
-     * safe for such use.
+     * The parameter children are replaced, rather than modified, when a 
+     * child is added, so that a search running concurrently with the 
+     * addition sees either all of them before it, or all of them after
+     * it, and never a partially ordered list. Static children are added
+     * in place to a table that can be read while it is added to.
      */
-    private final Pattern pattern;
+    private volatile Children children = Children.EMPTY;
+    
+    /* the regex of the node, which is only compiled if it is asked for */
+    private final String regex;
+    
+    private volatile Pattern pattern;
+    
+    /*
+     * decides whether a token matches the node, without evaluating 
+     * the regex unless the node has a custom regex that needs it
+     */
+    private final SegmentMatcher matcher;
     
     private final PathElement pathElement;
     
-    private Route route;
+    /* the kind of the element, which orders it among its siblings */
+    private final int rank;
     
-    private final TreeNodeComparator treeNodeComparator = new TreeNodeComparator();
+    private volatile Route route;
+    
+    /* the routes added for specific HTTP methods */
+    private volatile MethodTable methods = MethodTable.EMPTY;
     
     public TreeNode(PathElement elem) {
         
-        this.pattern = compilePattern(elem);
+        this.regex = buildRegex(elem);
+        this.matcher = SegmentMatcher.forElement(elem);
         this.pathElement = elem;
+        this.rank = elem instanceof SplatParameterElement ? SPLAT_RANK :
+            elem instanceof NamedParameterElement ? NAMED_RANK : STATIC_RANK;
+    }
+    
+    private TreeNode(TreeNode node) {
+        
+        this.regex = node.regex;
+        this.pattern = node.pattern;
+        this.matcher = node.matcher;
+        this.pathElement = node.pathElement;
+        this.rank = node.rank;
+        this.children = node.children;
+        this.route = node.route;
+        this.methods = node.methods;
     }
     
-    private Pattern compilePattern(PathElement elem) {
+    private String buildRegex(PathElement elem) {
         
         StringBuilder routeRegex = new StringBuilder("^");
         
@@ -74,12 +110,12 @@ private Pattern compilePattern(PathElement elem) {
         }
         
         routeRegex.append("$");
-        return Pattern.compile(routeRegex.toString());
+        return routeRegex.toString();
     }
     
     public boolean matches(String token) {
         
-        return pattern().matcher(token).find();
+        return matcher.matches(token);
     }
     
     public boolean matches(PathElement elem) {
@@ -93,18 +129,67 @@ public boolean matches(PathElement elem) {
     
     public void addChild(TreeNode node) {
         
-        children.add(node);
-        Collections.sort(children, treeNodeComparator);
+        children = children.with(node);
+    }
+    
+    /**
+     * Removes the given child, if it is a child of this node.
+     */
+    public void removeChild(TreeNode node) {
+        
+        children = children.without(node);
+    }
+    
+    /**
+     * Replaces the given child with another node for the same element,
+     * if it is a child of this node.
+     */
+    public void replaceChild(TreeNode node, TreeNode replacement) {
+        
+        children = children.replacing(node, replacement);
     }
     
+    /**
+     * Returns the children in order of precedence: the splat children,
+     * then the static children, ordered by their names and then in the
+     * order they were added, then the named children, in the order they
+     * were added.
+     */
     public List<TreeNode> getChildren() {
         
-        return new ArrayList<TreeNode>(children);
+        Children children = this.children;
+        List<TreeNode> statics = new ArrayList<TreeNode>();
+        for (TreeNode[] named : children.statics.values()) {
+            statics.addAll(Arrays.asList(named));
+        }
+        /* the sort is stable, so equally named static children stay in the order they were added */
+        Collections.sort(statics, STATIC_NAME_ORDER);
+        
+        List<TreeNode> all = new ArrayList<TreeNode>(statics.size() + children.parameters.length);
+        all.addAll(Arrays.asList(children.parameters).subList(0, children.splats));
+        all.addAll(statics);
+        all.addAll(Arrays.asList(children.parameters).subList(children.splats, children.parameters.length));
+        return all;
     }
     
+    private static final Comparator<TreeNode> STATIC_NAME_ORDER = new Comparator<TreeNode>() {
+        public int compare(TreeNode node1, TreeNode node2) {
+            return node1.pathElement.name().compareTo(node2.pathElement.name());
+        }
+    };
+    
     public TreeNode getMatchingChild(PathElement elem) {
         
-        for (TreeNode node : children) {
+        Children children = this.children;
+        if (elem instanceof StaticPathElement) {
+            TreeNode[] statics = children.statics.get(elem.name());
+            if (statics == null) return null;
+            for (TreeNode node : statics) {
+                if (node.matches(elem)) return node;
+            }
+            return null;
+        }
+        for (TreeNode node : children.parameters) {
             if (node.matches(elem)) return node;
         }
         return null;
@@ -112,15 +197,118 @@ public TreeNode getMatchingChild(PathElement elem) {
 
     public List<TreeNode> getMatchingChildren(String token) {
 
+        Children children = this.children;
+        TreeNode[] parameterChildren = children.parameters;
         List<TreeNode> matchingChildren = new ArrayList<TreeNode>();
-        for (TreeNode node : children) {
+        
+        /* splat children take precedence over the static children */
+        int i = 0;
+        for (; i < parameterChildren.length && parameterChildren[i].isSplat(); i++) {
+            TreeNode node = parameterChildren[i];
+            if (node.matches(token)) matchingChildren.add(node);
+        }
+        
+        TreeNode[] staticChildren = children.statics.get(token);
+        if (staticChildren != null) matchingChildren.addAll(Arrays.asList(staticChildren));
+        
+        for (; i < parameterChildren.length; i++) {
+            TreeNode node = parameterChildren[i];
             if (node.matches(token)) matchingChildren.add(node);
         }
         return matchingChildren;
     }
     
+    /**
+     * Returns the first child, in order of precedence, that matches the 
+     * token at the given index. If a route is required, children without 
+     * a route are not considered.
+     * 
+     * @return the matching child, or null if there is none
+     */
+    public TreeNode getMatchingChild(PathTokenizer tokens, int index, boolean requireRoute) {
+        
+        return getMatchingChild(tokens, index, requireRoute, null);
+    }
+    
+    /*
+     * as above, counting the regexes evaluated in the search, if one is given
+     */
+    TreeNode getMatchingChild(PathTokenizer tokens, int index, boolean requireRoute, 
+            PathSearch search) {
+        
+        return getMatchingChild(children, tokens, index, requireRoute, search, 0);
+    }
+    
+    /*
+     * Returns the first of the given children, from the given candidate on, 
+     * that matches the token at the given index. The candidates are numbered 
+     * in order of precedence: the splat children, then the static children
+     * named by the token, then the named children. The search, if one is given, is told which
+     * candidate matched, so that it can go on to the next one if it has
+     * to backtrack.
+     */
+    private static TreeNode getMatchingChild(Children children, PathTokenizer tokens, int index, 
+            boolean requireRoute, PathSearch search, int from) {
+        
+        TreeNode[] parameterChildren = children.parameters;
+        int splats = children.splats;
+        
+        int candidate = from;
+        for (; candidate < splats; candidate++) {
+            TreeNode node = parameterChildren[candidate];
+            if (requireRoute && !node.hasRoute()) continue;
+            if (node.matches(tokens, index, search)) return chosen(search, index, children, candidate, node);
+        }
+        
+        TreeNode[] staticChildren = children.statics.get(
+                tokens.source(index), tokens.start(index), tokens.end(index));
+        int statics = staticChildren == null ? 0 : staticChildren.length;
+        for (; candidate < splats + statics; candidate++) {
+            TreeNode staticChild = staticChildren[candidate - splats];
+            if (!requireRoute || staticChild.hasRoute()) {
+                return chosen(search, index, children, candidate, staticChild);
+            }
+        }
+        
+        for (; candidate - statics < parameterChildren.length; candidate++) {
+            TreeNode node = parameterChildren[candidate - statics];
+            if (requireRoute && !node.hasRoute()) continue;
+            if (node.matches(tokens, index, search)) return chosen(search, index, children, candidate, node);
+        }
+        return null;
+    }
+    
+    private static TreeNode chosen(PathSearch search, int index, Children children, 
+            int candidate, TreeNode node) {
+        
+        if (search != null) search.choose(index, children, candidate);
+        return node;
+    }
+    
+    /*
+     * Returns the next child after the one the search chose for the token 
+     * at the given index, among the same children, that matches the token.
+     */
+    static TreeNode getNextMatchingChild(PathSearch search, int index, boolean requireRoute) {
+        
+        return getMatchingChild((Children)search.children(index), search.tokens, index, 
+                requireRoute, search, search.candidate(index) + 1);
+    }
+    
+    private boolean matches(PathTokenizer tokens, int index, PathSearch search) {
+        
+        if (search != null && matcher.isRegex()) {
+            /* only tokens that get past the regex's prefilter count as evaluations */
+            if (!matcher.mayMatch(tokens, index)) return false;
+            search.regexEvaluations++;
+            return matcher.regexMatches(tokens, index);
+        }
+        return matcher.matches(tokens, index);
+    }
+    
     public boolean hasChildren() {
-        return !children.isEmpty();
+        Children children = this.children;
+        return children.parameters.length > 0 || children.statics.size() > 0;
     }
     
     public boolean containsSplatChild() {
@@ -129,8 +317,8 @@ public boolean containsSplatChild() {
     
     public TreeNode getSplatChild() {
         
-        for (TreeNode child : children) {
-            if (child.pathElement instanceof SplatParameterElement) {
+        for (TreeNode child : children.parameters) {
+            if (child.isSplat()) {
                 return child;
             }
         }
@@ -139,16 +327,50 @@ public TreeNode getSplatChild() {
     
     public Pattern pattern() {
         
+        /*
+         * From the Java API documentation for the Pattern class:
+         * Instances of this (Pattern) class are immutable and are safe for use by 
+         * multiple concurrent threads. Instances of the Matcher class are not 
+         * safe for such use.
+         */
+        Pattern pattern = this.pattern;
+        if (pattern == null) {
+            pattern = Pattern.compile(regex);
+            this.pattern = pattern;
+        }
         return pattern;
     }
     
+    SegmentMatcher matcher() {
+        
+        return matcher;
+    }
+    
+    public PathElement getPathElement() {
+        
+        return pathElement;
+    }
+    
     public boolean isSplat() {
         return pathElement instanceof SplatParameterElement;
     }
     
+    public boolean isNamedParameter() {
+        return pathElement instanceof NamedParameterElement;
+    }
+    
+    public boolean isStatic() {
+        return pathElement instanceof StaticPathElement;
+    }
+    
+    /**
+     * Returns the route added for any method, or if there is none,
+     * the route added for the first method.
+     */
     public Route getRoute() {
         
-        return route;
+        Route route = this.route;
+        return route != null ? route : methods.first();
     }
     
     public void setRoute(Route route) {
@@ -156,31 +378,207 @@ public void setRoute(Route route) {
         this.route = route;
     }
     
+    /**
+     * Returns a copy of this node, with the same children, without the
+     * given route, whether it was added for any method or for particular
+     * methods; or this node, if it does not have the route. This node is
+     * left as it is, so that a search that has already reached it still
+     * finds the route.
+     */
+    public TreeNode withoutRoute(Route route) {
+        
+        Route anyMethodRoute = this.route;
+        MethodTable methods = this.methods;
+        MethodTable newMethods = methods.without(route);
+        if (!route.equals(anyMethodRoute) && newMethods == methods) return this;
+        
+        TreeNode node = new TreeNode(this);
+        node.route = route.equals(anyMethodRoute) ? null : anyMethodRoute;
+        node.methods = newMethods;
+        return node;
+    }
+    
+    /**
+     * Returns the route added for the given method, or if there is 
+     * none, the route added for any method.
+     */
+    public Route getRoute(String method) {
+        
+        Route route = methods.get(method);
+        return route != null ? route : this.route;
+    }
+    
+    public void setRoute(String method, Route route) {
+        
+        this.methods = methods.with(method, route);
+    }
+    
+    public Set<String> getAllowedMethods() {
+        
+        return methods.allowed();
+    }
+    
+    /* the route added for any method, or null */
+    Route getAnyMethodRoute() {
+        
+        return route;
+    }
+    
+    MethodTable getMethodTable() {
+        
+        return methods;
+    }
+    
     public boolean hasRoute() {
-        return this.route != null;
+        return this.route != null || !methods.isEmpty();
     }
     
     public String toString() {
         
-        return pattern.toString();
+        return regex;
     }
     
-    private static class TreeNodeComparator implements Comparator<TreeNode> {
+    /*
+     * a snapshot of the children of a node; its parameter children are 
+     * immutable, while its static children may be added to
+     */
+    private static class Children {
         
-        public int compare(TreeNode node1, TreeNode node2) {
+        static final Children EMPTY = new Children(new SegmentTable<TreeNode[]>(), new TreeNode[0]);
+        
+        /*
+         * static children are indexed by their literal segment, so that
+         * finding the static children for a token does not depend on the
+         * number of siblings; only the parameter children (named and splat)
+         * need to be evaluated with their matchers. Equally named static
+         * children, which differ in the index of their elements, are kept
+         * in the order they were added, which is their order of precedence.
+         */
+        final SegmentTable<TreeNode[]> statics;
+        
+        /* the splat and named parameter children, in order of precedence */
+        final TreeNode[] parameters;
+        
+        /* the number of splat children, which come first among the parameters */
+        final int splats;
+        
+        Children(SegmentTable<TreeNode[]> statics, TreeNode[] parameters) {
+            
+            this.statics = statics;
+            this.parameters = parameters;
+            int splats = 0;
+            while (splats < parameters.length && parameters[splats].isSplat()) splats++;
+            this.splats = splats;
+        }
+        
+        Children with(TreeNode node) {
+            
+            if (node.isStatic()) {
+                
+                /* the empty table is shared, so the first static child gets a table of its own */
+                boolean shared = statics == EMPTY.statics;
+                SegmentTable<TreeNode[]> statics = shared ? new SegmentTable<TreeNode[]>() : this.statics;
+                String name = node.pathElement.name();
+                TreeNode[] named = statics.get(name);
+                statics.put(name, named == null ? new TreeNode[] { node } : append(named, node));
+                return shared ? new Children(statics, parameters) : this;
+            }
+            return new Children(statics, insert(parameters, node));
+        }
+        
+        Children without(TreeNode node) {
+            
+            if (node.isStatic()) {
+                
+                String name = node.pathElement.name();
+                TreeNode[] named = statics.get(name);
+                int i = named == null ? -1 : indexOf(named, node);
+                if (i == -1) return this;
+                if (named.length == 1) {
+                    statics.remove(name);
+                } else {
+                    TreeNode[] newNamed = new TreeNode[named.length - 1];
+                    System.arraycopy(named, 0, newNamed, 0, i);
+                    System.arraycopy(named, i + 1, newNamed, i, newNamed.length - i);
+                    statics.put(name, newNamed);
+                }
+                return this;
+            }
+            
+            for (int i = 0; i < parameters.length; i++) {
+                if (parameters[i] == node) {
+                    TreeNode[] newNodes = new TreeNode[parameters.length - 1];
+                    System.arraycopy(parameters, 0, newNodes, 0, i);
+                    System.arraycopy(parameters, i + 1, newNodes, i, newNodes.length - i);
+                    return new Children(statics, newNodes);
+                }
+            }
+            return this;
+        }
+        
+        Children replacing(TreeNode node, TreeNode replacement) {
+            
+            if (node.isStatic()) {
+                
+                String name = node.pathElement.name();
+                TreeNode[] named = statics.get(name);
+                int i = named == null ? -1 : indexOf(named, node);
+                if (i != -1) {
+                    TreeNode[] newNamed = named.clone();
+                    newNamed[i] = replacement;
+                    statics.put(name, newNamed);
+                }
+                return this;
+            }
+            
+            for (int i = 0; i < parameters.length; i++) {
+                if (parameters[i] == node) {
+                    TreeNode[] newNodes = parameters.clone();
+                    newNodes[i] = replacement;
+                    return new Children(statics, newNodes);
+                }
+            }
+            return this;
+        }
+        
+        private static TreeNode[] append(TreeNode[] nodes, TreeNode node) {
+            
+            TreeNode[] newNodes = new TreeNode[nodes.length + 1];
+            System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
+            newNodes[nodes.length] = node;
+            return newNodes;
+        }
         
-            String r1Elem = getElem(node1.pathElement);
-            String r2Elem = getElem(node2.pathElement);
+        private static int indexOf(TreeNode[] nodes, TreeNode node) {
             
-            return new PathElementComparator().compare(r1Elem, r2Elem);
+            for (int i = 0; i < nodes.length; i++) {
+                if (nodes[i] == node) return i;
+            }
+            return -1;
         }
         
-        private String getElem(PathElement element) {
-            String elem = element.name();
-            if (element instanceof NamedParameterElement) {
-                elem = PARAM_PREFIX + elem;
+        /*
+         * inserts the node after the nodes of the same or a higher rank, 
+         * so that equally ranked nodes stay in the order they were added
+         */
+        private static TreeNode[] insert(TreeNode[] nodes, TreeNode node) {
+            
+            int low = 0;
+            int high = nodes.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (nodes[mid].rank <= node.rank) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
             }
-            return elem;
+            
+            TreeNode[] newNodes = new TreeNode[nodes.length + 1];
+            System.arraycopy(nodes, 0, newNodes, 0, low);
+            newNodes[low] = node;
+            System.arraycopy(nodes, low, newNodes, low + 1, nodes.length - low);
+            return newNodes;
         }
     }
 }
@@ -17,43 +17,433 @@
 
 import static org.bigtesting.routd.RouteHelper.*;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
  * 
  * @author Luis Antunes
  */
-public class TreeRouter implements Router {
+public class TreeRouter implements MethodRouter {
 
-    private TreeNode root; 
+    /*
+     * Searches do not lock; they read the root once, and rely on the 
+     * children of each node being replaced, and never modified, when 
+     * a route is added (see TreeNode), and on a node being replaced, 
+     * rather than modified, when a route is removed.
+     */
+    private volatile TreeNode root; 
+    
+    /* records the work done by each search, if it is not null */
+    private final RouterMetrics metrics;
+    
+    public static final int DEFAULT_MAX_BACKTRACKS = 256;
+    
+    private volatile int maxBacktracks = DEFAULT_MAX_BACKTRACKS;
+    
+    public TreeRouter() {
+        
+        this(null);
+    }
+    
+    /**
+     * Creates a router that records the nodes visited, the regexes 
+     * evaluated, and the backtracks made by each of its searches in 
+     * the given metrics.
+     */
+    public TreeRouter(RouterMetrics metrics) {
+        
+        this.metrics = metrics;
+    }
+    
+    public void add(Route route) {
+        
+        addRoute(null, route);
+    }
+    
+    public void add(String method, Route route) {
+        
+        if (method == null) throw new IllegalArgumentException("method cannot be null");
+        addRoute(method, route);
+    }
+    
+    /**
+     * Removes the route, for any method and for each method it was
+     * added for, along with the nodes that are left with no route
+     * and no children.
+     */
+    public synchronized boolean remove(Route route) {
+        
+        TreeNode[] branch = branchOf(route);
+        if (branch == null) return false;
+        int last = branch.length - 1;
+        TreeNode node = branch[last];
+        TreeNode remaining = node.withoutRoute(route);
+        if (remaining == node) return false;
+        
+        /*
+         * the node is replaced rather than modified, so a search that 
+         * already reached it still finds the route, and a search that
+         * reaches its replacement, or finds it pruned, does not
+         */
+        if (last == 0) {
+            this.root = remaining;
+        } else if (remaining.hasRoute() || remaining.hasChildren()) {
+            branch[last - 1].replaceChild(node, remaining);
+        } else {
+            branch[last - 1].removeChild(node);
+            for (int i = last - 1; i > 0; i--) {
+                TreeNode ancestor = branch[i];
+                if (ancestor.hasRoute() || ancestor.hasChildren()) break;
+                branch[i - 1].removeChild(ancestor);
+            }
+        }
+        return true;
+    }
     
-    public synchronized void add(Route route) {
+    /**
+     * Replaces the route, for any method and for each method it was 
+     * added for. The replacement is added before the route is removed.
+     */
+    public synchronized boolean replace(Route route, Route replacement) {
+        
+        if (replacement == null) throw new IllegalArgumentException("replacement cannot be null");
+        
+        TreeNode[] branch = branchOf(route);
+        if (branch == null) return false;
+        TreeNode node = branch[branch.length - 1];
+        
+        boolean anyMethod = route.equals(node.getAnyMethodRoute());
+        List<String> methods = new ArrayList<String>();
+        for (String method : node.getAllowedMethods()) {
+            if (route.equals(node.getMethodTable().get(method))) methods.add(method);
+        }
+        if (!anyMethod && methods.isEmpty()) return false;
+        
+        if (anyMethod) addRoute(null, replacement);
+        for (String method : methods) {
+            addRoute(method, replacement);
+        }
+        /* an equal replacement has already taken the route's place */
+        if (!replacement.equals(route)) remove(route);
+        return true;
+    }
+    
+    /*
+     * the nodes from the root to the node of the given route, 
+     * or null if there is no node for the route
+     */
+    private TreeNode[] branchOf(Route route) {
+        
+        if (route == null) throw new IllegalArgumentException("route cannot be null");
+        
+        TreeNode root = this.root;
+        if (root == null) return null;
+        
+        List<PathElement> pathElements = elementsOf(route);
+        TreeNode[] branch = new TreeNode[pathElements.size() + 1];
+        branch[0] = root;
+        for (int i = 0; i < pathElements.size(); i++) {
+            branch[i + 1] = branch[i].getMatchingChild(pathElements.get(i));
+            if (branch[i + 1] == null) return null;
+        }
+        return branch;
+    }
+    
+    /*
+     * adds a route for the given method, or for any method if it is null
+     */
+    private synchronized void addRoute(String method, Route route) {
+        
+        List<PathElement> pathElements = elementsOf(route);
+        
+        TreeNode root = this.root;
+        if (root == null) {
+            root = newRoot();
+        }
+        
+        int i = 0;
+        TreeNode currentNode = root;
+        for (; i < pathElements.size(); i++) {
+            
+            TreeNode matchingNode = currentNode.getMatchingChild(pathElements.get(i));
+            if (matchingNode == null) break;
+            currentNode = matchingNode;
+        }
+        
+        if (i == pathElements.size()) {
+            
+            setRoute(currentNode, method, route);
+            
+        } else {
+            
+            /*
+             * the nodes that do not exist yet are built as a detached branch, 
+             * which is then published by adding it to the tree in a single step
+             */
+            TreeNode branch = new TreeNode(pathElements.get(i));
+            TreeNode leaf = branch;
+            for (i++; i < pathElements.size(); i++) {
+                TreeNode newChild = new TreeNode(pathElements.get(i));
+                leaf.addChild(newChild);
+                leaf = newChild;
+            }
+            setRoute(leaf, method, route);
+            currentNode.addChild(branch);
+        }
+        
+        this.root = root;
+    }
+    
+    /*
+     * the route's path elements, followed by an element for the 
+     * trailing path separator, if it has one
+     */
+    private static List<PathElement> elementsOf(Route route) {
         
         List<PathElement> pathElements = route.getPathElements();
         if (!pathElements.isEmpty() && route.endsWithPathSeparator()) {
             pathElements.add(
                     new StaticPathElement(PATH_ELEMENT_SEPARATOR, pathElements.size() - 1));
         }
+        return pathElements;
+    }
+    
+    private static TreeNode newRoot() {
+        
+        return new TreeNode(new StaticPathElement(PATH_ELEMENT_SEPARATOR, 0));
+    }
+    
+    /**
+     * Adds the routes, with a thread per available processor. 
+     * 
+     * @see #addAll(Collection, int)
+     */
+    public void addAll(Collection<Route> routes) {
+        
+        addAll(routes, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Adds the routes, leaving the tree as it would be if each route had 
+     * been added in turn. The routes are grouped by their leading elements,
+     * and the subtree for each group is built separately, using up to the 
+     * given number of threads. The subtrees are then merged into the tree;
+     * if the tree was empty, they are all published in a single step. 
+     * 
+     * @param routes the routes to add, in the order they would be added
+     * @param parallelism the most threads to build subtrees with
+     */
+    public void addAll(Collection<Route> routes, int parallelism) {
+        
+        if (routes == null) throw new IllegalArgumentException("routes cannot be null");
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive");
+        
+        List<RouteEntry> entries = new ArrayList<RouteEntry>(routes.size());
+        for (Route route : routes) {
+            entries.add(new RouteEntry(route, elementsOf(route)));
+        }
         
+        TreeNode tree;
+        if (parallelism == 1 || entries.size() < MIN_PARALLEL_ROUTES) {
+            
+            tree = new TreeBuilder(null, Integer.MAX_VALUE).build(entries);
+            
+        } else {
+            
+            ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+            try {
+                /* several subtrees per thread, so that uneven groups still spread */
+                int taskSize = Math.max(MIN_TASK_ROUTES, entries.size() / (parallelism * 4));
+                tree = new TreeBuilder(executor, taskSize).build(entries);
+            } finally {
+                executor.shutdown();
+            }
+        }
+        
+        merge(tree);
+    }
+    
+    /* the fewest routes that are worth building with more than one thread */
+    private static final int MIN_PARALLEL_ROUTES = 1024;
+    private static final int MIN_TASK_ROUTES = 64;
+    
+    private synchronized void merge(TreeNode tree) {
+        
+        TreeNode root = this.root;
         if (root == null) {
-            root = new TreeNode(new StaticPathElement(PATH_ELEMENT_SEPARATOR, 0));
+            this.root = tree;
+        } else {
+            merge(root, tree);
         }
+    }
+    
+    /*
+     * merges the detached node into the node of the tree with the same
+     * element, as though the routes of the detached node had been added
+     * after those of the tree
+     */
+    private static void merge(TreeNode node, TreeNode detached) {
         
-        TreeNode currentNode = root;
-        for (PathElement elem : pathElements) {
+        if (detached.getAnyMethodRoute() != null) {
+            node.setRoute(detached.getAnyMethodRoute());
+        }
+        for (TreeNode child : detached.getChildren()) {
             
-            TreeNode matchingNode = currentNode.getMatchingChild(elem);
-            if (matchingNode == null) {
-                TreeNode newChild = new TreeNode(elem);
-                currentNode.addChild(newChild);
-                currentNode = newChild;
+            TreeNode existing = node.getMatchingChild(child.getPathElement());
+            if (existing == null) {
+                node.addChild(child);
             } else {
-                currentNode = matchingNode;
+                merge(existing, child);
+            }
+        }
+    }
+    
+    private static final class RouteEntry {
+        
+        final Route route;
+        final List<PathElement> elements;
+        
+        RouteEntry(Route route, List<PathElement> elements) {
+            
+            this.route = route;
+            this.elements = elements;
+        }
+    }
+    
+    /*
+     * builds a detached tree for a list of routes; the subtrees for groups
+     * of routes larger than the task size are split further by the calling
+     * thread, while the others are each built by a single task
+     */
+    private static final class TreeBuilder {
+        
+        private final ExecutorService executor;
+        private final int taskSize;
+        
+        /* each node with children still being built, followed by its children or their futures */
+        private final List<List<Object>> pending = new ArrayList<List<Object>>();
+        
+        TreeBuilder(ExecutorService executor, int taskSize) {
+            
+            this.executor = executor;
+            this.taskSize = taskSize;
+        }
+        
+        TreeNode build(List<RouteEntry> entries) {
+            
+            TreeNode root = build(newRoot(), entries, 0);
+            
+            /* the children are added in the order their groups first appeared */
+            for (List<Object> children : pending) {
+                TreeNode node = (TreeNode)children.get(0);
+                for (Object child : children.subList(1, children.size())) {
+                    node.addChild(child instanceof TreeNode ? (TreeNode)child : result(child));
+                }
+            }
+            return root;
+        }
+        
+        private TreeNode build(TreeNode node, List<RouteEntry> entries, int depth) {
+            
+            Map<String, List<RouteEntry>> groups = new LinkedHashMap<String, List<RouteEntry>>();
+            for (RouteEntry entry : entries) {
+                
+                if (entry.elements.size() == depth) {
+                    node.setRoute(entry.route);
+                    continue;
+                }
+                String key = groupKey(entry.elements.get(depth));
+                List<RouteEntry> group = groups.get(key);
+                if (group == null) {
+                    group = new ArrayList<RouteEntry>();
+                    groups.put(key, group);
+                }
+                group.add(entry);
+            }
+            
+            if (executor == null) {
+                for (List<RouteEntry> group : groups.values()) {
+                    node.addChild(build(group, depth + 1));
+                }
+                return node;
+            }
+            
+            List<Object> children = new ArrayList<Object>(groups.size() + 1);
+            children.add(node);
+            for (final List<RouteEntry> group : groups.values()) {
+                
+                if (group.size() > taskSize) {
+                    children.add(build(group, depth + 1));
+                } else {
+                    final int childDepth = depth + 1;
+                    children.add(executor.submit(new Callable<TreeNode>() {
+                        public TreeNode call() {
+                            return new TreeBuilder(null, Integer.MAX_VALUE).build(group, childDepth);
+                        }
+                    }));
+                }
+            }
+            pending.add(children);
+            return node;
+        }
+        
+        /* builds the node for a group of routes that share the element before the given depth */
+        private TreeNode build(List<RouteEntry> group, int depth) {
+            
+            return build(new TreeNode(group.get(0).elements.get(depth - 1)), group, depth);
+        }
+        
+        /*
+         * identifies the node an element belongs to, as TreeNode.getMatchingChild 
+         * would: elements are equal only if they have the same index in their 
+         * paths, which differs after blank elements, and static and named 
+         * elements of the same name are kept apart
+         */
+        private static String groupKey(PathElement elem) {
+            
+            String index = elem.index() + PATH_ELEMENT_SEPARATOR;
+            if (elem instanceof NamedParameterElement) {
+                String regex = ((NamedParameterElement)elem).regex();
+                return index + PARAM_PREFIX + elem.name() + (regex == null ? "" : CUSTOM_REGEX_START + regex);
             }
+            if (elem instanceof SplatParameterElement) return index + WILDCARD;
+            return index + PATH_ELEMENT_SEPARATOR + elem.name();
+        }
+        
+        private static TreeNode result(Object future) {
+            
+            try {
+                return (TreeNode)((Future<?>)future).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while adding routes", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+                if (cause instanceof Error) throw (Error)cause;
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+    
+    private static void setRoute(TreeNode node, String method, Route route) {
+        
+        if (method == null) {
+            node.setRoute(route);
+        } else {
+            node.setRoute(method, route);
         }
-        currentNode.setRoute(route);
     }
     
     /**
@@ -66,62 +456,238 @@ public synchronized void add(Route route) {
      */
     public Route route(String path) {
         
-        List<String> searchTokens = getPathAsSearchTokens(path);
+        return route(PathSearch.begin(path));
+    }
+    
+    /**
+     * Returns a Route that matches the given URL path, held in any
+     * CharSequence, which is searched in place.
+     * 
+     *  @param path an undecoded URL path
+     *  @return the matching route, or null if none is found
+     */
+    public Route route(CharSequence path) {
+        
+        return route(PathSearch.begin(path));
+    }
+    
+    /**
+     * Returns a Route that matches the URL path held in the given region
+     * of the buffer, as ASCII or UTF-8 bytes. An ASCII path is searched
+     * in place, with its static elements compared byte by byte, so no
+     * strings are created for it. The buffer's position is not changed.
+     * 
+     *  @param buffer holds an undecoded URL path
+     *  @param offset the index in the buffer at which the path starts
+     *  @param length the number of bytes in the path
+     *  @return the matching route, or null if none is found
+     */
+    public Route route(ByteBuffer buffer, int offset, int length) {
+        
+        return route(PathSearch.begin(buffer, offset, length));
+    }
+    
+    private Route route(PathSearch search) {
+        
+        try {
+            TreeNode node = search(search);
+            return node == null ? null : node.getRoute();
+        } finally {
+            search.clear();
+        }
+    }
+    
+    /**
+     * Returns a RouteMatch for the Route that matches the given URL path.
+     * The parameter values are recorded while the tree is searched, so 
+     * the path is not parsed again to extract them.
+     * Note that the path is expected to be an undecoded URL path.
+     * 
+     *  @param path an undecoded URL path
+     *  @return the match, or null if no matching route is found
+     */
+    public RouteMatch match(String path) {
+        
+        return match(PathSearch.begin(path));
+    }
+    
+    /**
+     * Returns a RouteMatch for the Route that matches the given URL path,
+     * held in any CharSequence. Strings are only created for the values
+     * of the route's parameters.
+     * 
+     *  @param path an undecoded URL path
+     *  @return the match, or null if no matching route is found
+     */
+    public RouteMatch match(CharSequence path) {
+        
+        return match(PathSearch.begin(path));
+    }
+    
+    /**
+     * Returns a RouteMatch for the Route that matches the URL path held in 
+     * the given region of the buffer, as ASCII or UTF-8 bytes. Strings are
+     * only created for the values of the route's parameters, which are read
+     * from the buffer before this method returns.
+     * 
+     *  @param buffer holds an undecoded URL path
+     *  @param offset the index in the buffer at which the path starts
+     *  @param length the number of bytes in the path
+     *  @return the match, or null if no matching route is found
+     */
+    public RouteMatch match(ByteBuffer buffer, int offset, int length) {
+        
+        return match(PathSearch.begin(buffer, offset, length));
+    }
+    
+    private RouteMatch match(PathSearch search) {
+        
+        try {
+            TreeNode node = search(search);
+            if (node == null || !node.hasRoute()) return null;
+            return search.newMatch(node.getRoute());
+        } finally {
+            search.clear();
+        }
+    }
+    
+    public Route route(String method, String path) {
+        
+        PathSearch search = PathSearch.begin(path);
+        try {
+            TreeNode node = search(search);
+            return node == null ? null : node.getRoute(method);
+        } finally {
+            search.clear();
+        }
+    }
+    
+    public RouteMatch match(String method, String path) {
+        
+        PathSearch search = PathSearch.begin(path);
+        try {
+            TreeNode node = search(search);
+            if (node == null || !node.hasRoute()) return null;
+            Route route = node.getRoute(method);
+            boolean methodAllowed = route != null;
+            return search.newMatch(methodAllowed ? route : node.getRoute(), 
+                    methodAllowed, node.getAllowedMethods());
+        } finally {
+            search.clear();
+        }
+    }
+    
+    /*
+     * Returns the node whose route matches the tokens, capturing
+     * the parameters on the way to it.
+     */
+    private TreeNode search(PathSearch search) {
+        
+        TreeNode node = find(search, this.root);
+        if (metrics != null) {
+            metrics.recordSearch(search.nodesVisited, search.regexEvaluations, search.backtracks);
+        }
+        return node;
+    }
+    
+    /*
+     * Searches from the root, recording the node reached after each token.
+     */
+    private TreeNode find(PathSearch search, TreeNode root) {
+        
+        if (root == null) return null;
+        
+        PathTokenizer tokens = search.tokens;
         
         /* handle the case where path is '/' and route '/*' exists */
-        if (searchTokens.isEmpty() && root.containsSplatChild() && !root.hasRoute()) {
-            return root.getSplatChild().getRoute();
+        if (tokens.size() == 0 && root.containsSplatChild() && !root.hasRoute()) {
+            search.captureSplat(0, true);
+            return root.getSplatChild();
         }
-
-        int remainingTokens = searchTokens.size();
         TreeNode currentMatchingNode = root;
-        for (String token : searchTokens) {
-            remainingTokens -= 1;
-
-            List<TreeNode> matchingNodes = currentMatchingNode.getMatchingChildren(token);
+        search.reach(0, root);
+        search.nodesVisited++;
 
-            if (matchingNodes.isEmpty()) return null;
+        int i = 0;
+        boolean retry = false;
+        while (i < tokens.size()) {
+            
+            /*
+             * if there are no more tokens to process after this one, 
+             *   only a candidate that has a route can match
+             */
+            boolean lastToken = i == tokens.size() - 1;
+            TreeNode next = retry ? 
+                    TreeNode.getNextMatchingChild(search, i, lastToken) :
+                    currentMatchingNode.getMatchingChild(tokens, i, lastToken, search);
+            retry = false;
 
-            currentMatchingNode = getMatchingNode(matchingNodes, remainingTokens);
+            if (next == null) {
+                
+                /*
+                 * a dead end: go back to the previous token, and try the
+                 *   next candidate for it, in order of precedence
+                 */
+                if (i == 0 || search.backtracks >= maxBacktracks) return null;
+                i--;
+                TreeNode abandoned = (TreeNode)search.node(i + 1);
+                search.backtrack(i);
+                
+                /* a splat that has a route can instead match the rest of the path */
+                if (abandoned.isSplat() && abandoned.hasRoute()) {
+                    search.captureSplat(i, true);
+                    return abandoned;
+                }
+                currentMatchingNode = (TreeNode)search.node(i);
+                retry = true;
+                continue;
+            }
+            search.nodesVisited++;
             
-            if (currentMatchingNode.isSplat() && 
-                    !currentMatchingNode.hasChildren()) {
-                return currentMatchingNode.getRoute();
+            if (next.isSplat()) {
+                
+                boolean endsRoute = !next.hasChildren();
+                search.captureSplat(i, endsRoute);
+                if (endsRoute) return next;
+                
+            } else if (next.isNamedParameter()) {
+                
+                search.captureNamed(i);
             }
+            search.reach(i + 1, next);
+            currentMatchingNode = next;
+            i++;
         }
         
-        return currentMatchingNode.getRoute();
+        return currentMatchingNode;
     }
-
-    private TreeNode getMatchingNode(List<TreeNode> candidates, int remainingTokens) {
-        /*
-         * if there is more than one candidate and there are no more tokens to process,
-         *   return the first candidate that has a route
-         */
-        if (candidates.size() > 1 && remainingTokens == 0) {
-            for (TreeNode candidate : candidates) {
-                if (candidate.hasRoute()) return candidate;
-            }
-        }
-        return candidates.get(0);
+    
+    /**
+     * Sets the most times a search may go back to try another candidate,
+     * after the one it chose for a token led to a dead end, before it
+     * gives up. Each node is tried at most once per search, so a search 
+     * is bounded by the size of the tree regardless, but a lower limit 
+     * bounds it by much less. A limit of 0 makes the search commit to the
+     * first candidate for each token.
+     */
+    public void setMaxBacktracks(int maxBacktracks) {
+        
+        if (maxBacktracks < 0) throw new IllegalArgumentException("max backtracks cannot be negative");
+        this.maxBacktracks = maxBacktracks;
     }
     
-    private List<String> getPathAsSearchTokens(String path) {
+    public int getMaxBacktracks() {
         
-        List<String> tokens = new ArrayList<String>();
-        path = urlDecodeForRouting(path);
-        String[] pathElements = getPathElements(path);
-        for (int i = 0; i < pathElements.length; i++) {
-            String token = pathElements[i];
-            if (token != null && token.trim().length() > 0) {
-                tokens.add(token);
-            }
-        }        
-        if (!tokens.isEmpty() && 
-                path.trim().endsWith(PATH_ELEMENT_SEPARATOR)) {
-            tokens.add(PATH_ELEMENT_SEPARATOR);
-        }
-        return tokens;
+        return maxBacktracks;
+    }
+    
+    /**
+     * Returns an immutable, compact copy of this router, for routing 
+     * once all of the routes have been added.
+     */
+    public FrozenRouter freeze() {
+        
+        return new FrozenRouter(this);
     }
     
     public TreeNode getRoot() {
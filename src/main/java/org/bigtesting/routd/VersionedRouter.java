@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A Router over a versioned, immutable route table, which is replaced as
+ * a whole. A new table is built from a collection of routes, as a
+ * FrozenRouter, while lookups carry on with the active table, and is then
+ * published in a single step. A lookup routes with the table that was
+ * active when it started, so it never sees part of one table and part of
+ * another.
+ * <p>
+ * Tables are built one at a time, on a single reload thread, in the order
+ * they were asked for, whether by a reload or by a change to a single
+ * route, so no table is overtaken by an older one. Routes can also be
+ * added, removed, and replaced one at a time, but each change waits for
+ * the reloads before it and builds a new table, so this Router is best
+ * suited to route tables that are reloaded as a whole.
+ */
+public class VersionedRouter implements Router {
+
+    /* how long the reload thread waits for another reload before it ends */
+    private static final long RELOAD_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final AtomicReference<RouteTable> table =
+            new AtomicReference<RouteTable>(RouteTable.EMPTY);
+
+    /* records each reload, if it is not null */
+    private final RouterMetrics metrics;
+
+    /* builds and publishes every table, one at a time, in the order they were asked for */
+    private final ExecutorService reloader;
+
+    public VersionedRouter() {
+
+        this(null);
+    }
+
+    /**
+     * Creates a router that records the version, the number of routes,
+     * and the build time of each route table it publishes in the given
+     * metrics.
+     */
+    public VersionedRouter(RouterMetrics metrics) {
+
+        this.metrics = metrics;
+        ThreadPoolExecutor reloader = new ThreadPoolExecutor(1, 1,
+                RELOAD_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "routd-reload");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        reloader.allowCoreThreadTimeOut(true);
+        this.reloader = reloader;
+    }
+
+    /**
+     * Builds a route table from the given routes and publishes it,
+     * replacing the active table. Any reloads already asked for are
+     * published first.
+     *
+     * @return the version of the new table
+     */
+    public long reload(Collection<Route> routes) {
+
+        return result(reloadAsync(routes));
+    }
+
+    /**
+     * Builds a route table from the given routes in the background, and
+     * publishes it once it is built. The routes are copied before this
+     * method returns.
+     *
+     * @return the version of the new table, once it is published
+     */
+    public Future<Long> reloadAsync(Collection<Route> routes) {
+
+        if (routes == null) throw new IllegalArgumentException("routes cannot be null");
+        final List<Route> copy = new ArrayList<Route>(routes);
+        return reloader.submit(new Callable<Long>() {
+            public Long call() {
+                return publish(copy);
+            }
+        });
+    }
+
+    public void add(final Route route) {
+
+        if (route == null) throw new IllegalArgumentException("route cannot be null");
+
+        result(reloader.submit(new Callable<Boolean>() {
+            public Boolean call() {
+                List<Route> routes = new ArrayList<Route>(table.get().routes);
+                routes.add(route);
+                publish(routes);
+                return true;
+            }
+        }));
+    }
+
+    public boolean remove(final Route route) {
+
+        if (route == null) throw new IllegalArgumentException("route cannot be null");
+
+        return result(reloader.submit(new Callable<Boolean>() {
+            public Boolean call() {
+                List<Route> routes = new ArrayList<Route>(table.get().routes);
+                if (!routes.removeAll(Collections.singleton(route))) return false;
+                publish(routes);
+                return true;
+            }
+        }));
+    }
+
+    public boolean replace(final Route route, final Route replacement) {
+
+        if (route == null) throw new IllegalArgumentException("route cannot be null");
+        if (replacement == null) throw new IllegalArgumentException("replacement cannot be null");
+
+        return result(reloader.submit(new Callable<Boolean>() {
+            public Boolean call() {
+                List<Route> routes = new ArrayList<Route>(table.get().routes);
+                boolean replaced = false;
+                for (int i = 0; i < routes.size(); i++) {
+                    if (routes.get(i).equals(route)) {
+                        routes.set(i, replacement);
+                        replaced = true;
+                    }
+                }
+                if (!replaced) return false;
+                publish(routes);
+                return true;
+            }
+        }));
+    }
+
+    /*
+     * only ever called on the reload thread, so tables are built one at
+     * a time, each from the routes of the table published before it
+     */
+    private long publish(List<Route> routes) {
+
+        long start = System.nanoTime();
+        TreeRouter tree = new TreeRouter();
+        tree.addAll(routes);
+        FrozenRouter router = new FrozenRouter(tree);
+        long buildNanos = System.nanoTime() - start;
+
+        long version = table.get().version + 1;
+        table.set(new RouteTable(version, Collections.unmodifiableList(routes), router));
+        if (metrics != null) metrics.recordReload(version, routes.size(), buildNanos);
+        return version;
+    }
+
+    /* waits for a task on the reload thread, and rethrows what it threw */
+    private static <T> T result(Future<T> future) {
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while publishing routes", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Returns a Route that matches the given URL path, in the active
+     * route table.
+     * Note that the path is expected to be an undecoded URL path.
+     * The router will handle any decoding that might be required.
+     *
+     *  @param path an undecoded URL path
+     *  @return the matching route, or null if none is found
+     */
+    public Route route(String path) {
+
+        return table.get().router.route(path);
+    }
+
+    public RouteMatch match(String path) {
+
+        return table.get().router.match(path);
+    }
+
+    /**
+     * Returns the version of the active route table, which is 0 until
+     * a table is first published.
+     */
+    public long getVersion() {
+
+        return table.get().version;
+    }
+
+    /**
+     * Returns the routes of the active route table, in the order they
+     * were given.
+     */
+    public List<Route> getRoutes() {
+
+        return table.get().routes;
+    }
+
+    private static final class RouteTable {
+
+        static final RouteTable EMPTY = new RouteTable(0, Collections.<Route>emptyList(),
+                new FrozenRouter(new TreeRouter()));
+
+        final long version;
+        final List<Route> routes;
+        final FrozenRouter router;
+
+        RouteTable(long version, List<Route> routes, FrozenRouter router) {
+            this.version = version;
+            this.routes = routes;
+            this.router = router;
+        }
+    }
+}
@@ -24,12 +24,22 @@
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+    TestCachingRouter.class,
+    TestCombinedRegexRouter.class,
+    TestFrozenRouter.class,
+    TestHostRouter.class,
+    TestInstrumentedRouter.class,
+    TestMethodRouting.class,
+    TestPathTokenizer.class,
     TestRegexRoute.class,
     TestRegexRouter.class,
     TestRoute.class,
+    TestSnapshotRouter.class,
     TestRouteHelper.class,
     TestRegexRouteComparator.class,
-    TestTreeRouter.class
+    TestTreeRouter.class,
+    TestTreeRouterConcurrency.class,
+    TestVersionedRouter.class
 })
 public class RoutdTestSuite {
     /*
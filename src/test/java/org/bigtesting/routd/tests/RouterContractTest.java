@@ -20,6 +20,7 @@
 import org.bigtesting.It;
 import org.bigtesting.ItRunner;
 import org.bigtesting.routd.Route;
+import org.bigtesting.routd.RouteMatch;
 import org.bigtesting.routd.Router;
 import org.junit.Before;
 import org.junit.runner.RunWith;
@@ -431,4 +432,209 @@ public void routeTest33() {
         assertEquals(r1, x);
         assertEquals("10", x.getNamedParameter("imgid", path));
     }
+    
+    @It("returns a match holding the route and its parameter values")
+    public void matchTest1() {
+        
+        Route r1 = new Route("/customer/:id<[0-9]+>/named/:name/*");
+        Route r2 = new Route("/customer/all");
+        router.add(r1);
+        router.add(r2);
+        
+        RouteMatch match = router.match("/customer/1/named/John/Doe");
+        assertEquals(r1, match.getRoute());
+        assertEquals("1", match.getNamedParameter("id"));
+        assertEquals("John", match.getNamedParameter("name"));
+        assertEquals("John", match.getNamedParameter(r1.getNamedParameterIndex("name")));
+        assertNull(match.getNamedParameter("blah"));
+        assertEquals(1, match.splat().length);
+        assertEquals("Doe", match.getSplatParameter(0));
+        assertNull(match.getSplatParameter(1));
+        
+        match = router.match("/customer/all");
+        assertEquals(r2, match.getRoute());
+        assertEquals(0, match.splat().length);
+        
+        assertNull(router.match("/customer/all/named"));
+    }
+    
+    @It("returns a match with decoded parameter values")
+    public void matchTest2() {
+        
+        Route r = new Route("/hello/:test/there/*");
+        router.add(r);
+        
+        RouteMatch match = router.match("/hello/foo%2Fbar/there/f%C3%B6%C3%B6/a+b/");
+        assertEquals(r, match.getRoute());
+        assertEquals("foo/bar", match.getNamedParameter("test"));
+        assertEquals("föö/a+b/", match.getSplatParameter(0));
+    }
+    
+    @It("returns a match with the same values as the route for splat parameters")
+    public void matchTest3() {
+        
+        Route r1 = new Route("/say/*/to/*");
+        Route r2 = new Route("/protected/*");
+        Route r3 = new Route("/*");
+        router.add(r1);
+        router.add(r2);
+        
+        String[] paths = new String[]{
+                "/say/hello/to/world", "/say/bye/to/John/Doe", "/say/hello/to/", 
+                "/protected/content", "/protected/"};
+        for (String path : paths) {
+            RouteMatch match = router.match(path);
+            assertArrayEquals(match.getRoute().splat(path), match.splat());
+        }
+        
+        router.add(r3);
+        RouteMatch match = router.match("/");
+        assertEquals(r3, match.getRoute());
+        assertArrayEquals(new String[]{""}, match.splat());
+    }
+    
+    @It("tries the next candidate when a static element leads to a dead end")
+    public void backtrackTest1() {
+        
+        Route r1 = new Route("/a/b/c");
+        Route r2 = new Route("/a/:x/d");
+        router.add(r1);
+        router.add(r2);
+        
+        assertEquals(r1, router.route("/a/b/c"));
+        assertEquals(r2, router.route("/a/b/d"));
+        assertEquals(r2, router.route("/a/z/d"));
+        assertNull(router.route("/a/b/e"));
+        
+        RouteMatch match = router.match("/a/b/d");
+        assertEquals(r2, match.getRoute());
+        assertEquals("b", match.getNamedParameter("x"));
+    }
+    
+    @It("keeps only the parameter values of the path that matched")
+    public void backtrackTest2() {
+        
+        Route r1 = new Route("/users/:id/:action<[a-z]+>/x");
+        Route r2 = new Route("/users/:name/:page<[0-9]+>");
+        router.add(r1);
+        router.add(r2);
+        
+        RouteMatch match = router.match("/users/new/7");
+        assertEquals(r2, match.getRoute());
+        assertEquals("new", match.getNamedParameter("name"));
+        assertEquals("7", match.getNamedParameter("page"));
+        assertNull(match.getNamedParameter("id"));
+        
+        match = router.match("/users/new/edit/x");
+        assertEquals(r1, match.getRoute());
+        assertEquals("edit", match.getNamedParameter("action"));
+    }
+    
+    @It("no longer routes to a removed route")
+    public void removeTest1() {
+        
+        Route r1 = new Route("/a/:id<[0-9]+>");
+        Route r2 = new Route("/a/:name");
+        Route r3 = new Route("/a/b/c");
+        router.add(r1);
+        router.add(r2);
+        router.add(r3);
+        
+        assertTrue(router.remove(r1));
+        assertEquals(r2, router.route("/a/123"));
+        assertEquals(r3, router.route("/a/b/c"));
+        
+        assertTrue(router.remove(r3));
+        assertNull(router.route("/a/b/c"));
+        assertEquals(r2, router.route("/a/b"));
+    }
+    
+    @It("does not remove a route that was not added")
+    public void removeTest2() {
+        
+        Route r1 = new Route("/a/b");
+        router.add(r1);
+        
+        assertFalse(router.remove(new Route("/a/c")));
+        assertFalse(router.remove(new Route("/a")));
+        assertTrue(router.remove(r1));
+        assertFalse(router.remove(r1));
+        assertNull(router.route("/a/b"));
+    }
+    
+    @It("routes to a route again once it is added back")
+    public void removeTest3() {
+        
+        Route r1 = new Route("/a/*/c");
+        router.add(r1);
+        assertTrue(router.remove(r1));
+        assertNull(router.route("/a/b/c"));
+        
+        router.add(r1);
+        assertEquals(r1, router.route("/a/b/c"));
+    }
+    
+    @It("routes to the replacement of a replaced route")
+    public void replaceTest1() {
+        
+        Route r1 = new Route("/a/:id");
+        Route r2 = new Route("/a/:id<[0-9]+>");
+        Route r3 = new Route("/a/b");
+        router.add(r1);
+        router.add(r3);
+        
+        assertTrue(router.replace(r1, r2));
+        assertEquals(r2, router.route("/a/123"));
+        assertNull(router.route("/a/xyz"));
+        assertEquals(r3, router.route("/a/b"));
+        
+        RouteMatch match = router.match("/a/123");
+        assertEquals("123", match.getNamedParameter("id"));
+    }
+    
+    @It("does not add the replacement of a route that was not added")
+    public void replaceTest2() {
+        
+        Route r1 = new Route("/a/b");
+        Route r2 = new Route("/c/d");
+        router.add(r1);
+        
+        assertFalse(router.replace(new Route("/a/c"), r2));
+        assertNull(router.route("/c/d"));
+        assertEquals(r1, router.route("/a/b"));
+    }
+    
+    @It("gives sibling named parameters precedence in the order they were added")
+    public void precedenceTest1() {
+        
+        Route r1 = new Route("/a/:name");
+        Route r2 = new Route("/a/:id<[0-9]+>");
+        Route r3 = new Route("/b/:zeta/x");
+        Route r4 = new Route("/b/:alpha/x");
+        Route r5 = new Route("/b/:mu/:beta");
+        Route r6 = new Route("/b/:mu/:alpha");
+        router.add(r1);
+        router.add(r2);
+        router.add(r3);
+        router.add(r4);
+        router.add(r5);
+        router.add(r6);
+        
+        assertEquals(r1, router.route("/a/123"));
+        assertEquals(r3, router.route("/b/1/x"));
+        assertEquals(r5, router.route("/b/1/y"));
+        assertEquals("y", router.match("/b/1/y").getNamedParameter("beta"));
+        
+        /* a named parameter added again takes its place after the others */
+        assertTrue(router.remove(r1));
+        router.add(r1);
+        assertEquals(r2, router.route("/a/123"));
+        assertEquals(r1, router.route("/a/abc"));
+        
+        assertTrue(router.remove(r3));
+        assertEquals(r4, router.route("/b/1/x"));
+        router.add(r3);
+        assertEquals(r4, router.route("/b/1/x"));
+    }
+
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd.tests;
+
+import static org.junit.Assert.*;
+
+import org.bigtesting.It;
+import org.bigtesting.ItRunner;
+import org.bigtesting.routd.CachingRouter;
+import org.bigtesting.routd.CachingRouter.Policy;
+import org.bigtesting.routd.Route;
+import org.bigtesting.routd.RouteMatch;
+import org.bigtesting.routd.TreeRouter;
+import org.junit.runner.RunWith;
+
+@RunWith(ItRunner.class)
+public class TestCachingRouter extends RouterContractTest<CachingRouter> {
+    
+    protected CachingRouter newRouter() {
+        return new CachingRouter(new TreeRouter());
+    }
+    
+    @It("counts hits and misses")
+    void cacheTest1() {
+        
+        Route r1 = new Route("/clients/:id");
+        router.add(r1);
+        
+        assertEquals(r1, router.route("/clients/1"));
+        assertEquals(r1, router.route("/clients/1"));
+        assertEquals(r1, router.route("/clients/2"));
+        assertNull(router.route("/other"));
+        assertNull(router.route("/other"));
+        
+        assertEquals(2, router.getHitCount());
+        assertEquals(3, router.getMissCount());
+        assertEquals(3, router.size());
+    }
+    
+    @It("returns the cached match, with its parameter values")
+    void cacheTest2() {
+        
+        Route r1 = new Route("/clients/:id");
+        router.add(r1);
+        
+        RouteMatch first = router.match("/clients/1");
+        RouteMatch second = router.match("/clients/1");
+        assertSame(first, second);
+        assertEquals("1", second.getNamedParameter("id"));
+        assertEquals(r1, router.route("/clients/1"));
+        assertEquals(2, router.getHitCount());
+    }
+    
+    @It("discards cached results when a route is added")
+    void cacheTest3() {
+        
+        Route r1 = new Route("/clients/:id");
+        Route r2 = new Route("/clients/all");
+        router.add(r1);
+        
+        assertEquals(r1, router.route("/clients/all"));
+        assertNull(router.route("/accounts"));
+        
+        router.add(r2);
+        router.add(new Route("/accounts"));
+        
+        assertEquals(r2, router.route("/clients/all"));
+        assertEquals(new Route("/accounts"), router.route("/accounts"));
+    }
+    
+    @It("evicts the least recently used path with the LRU policy")
+    void cacheTest4() {
+        
+        CachingRouter lru = new CachingRouter(new TreeRouter(), 2, Policy.LRU);
+        lru.add(new Route("/:name"));
+        
+        lru.route("/a");
+        lru.route("/b");
+        lru.route("/a");
+        lru.route("/c");
+        assertEquals(1, lru.getEvictionCount());
+        assertEquals(2, lru.size());
+        
+        long misses = lru.getMissCount();
+        lru.route("/a");
+        assertEquals(misses, lru.getMissCount());
+        lru.route("/b");
+        assertEquals(misses + 1, lru.getMissCount());
+    }
+    
+    @It("keeps frequently requested paths when flooded with paths requested once")
+    void cacheTest5() {
+        
+        assertTrue(hotHitRatio(Policy.TINY_LFU) > 0.9);
+        assertTrue(hotHitRatio(Policy.LRU) < 0.5);
+    }
+    
+    private double hotHitRatio(Policy policy) {
+        
+        CachingRouter cache = new CachingRouter(new TreeRouter(), 256, policy);
+        cache.add(new Route("/users/:id"));
+        cache.add(new Route("/hot/:n"));
+        
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 100; i++) {
+                cache.route("/hot/" + i);
+            }
+        }
+        
+        long hits = cache.getHitCount();
+        int hotLookups = 0;
+        for (int i = 0; i < 20000; i++) {
+            cache.route("/users/" + i);
+            if (i % 10 == 0) {
+                cache.route("/hot/" + (i / 10) % 100);
+                hotLookups++;
+            }
+        }
+        return (cache.getHitCount() - hits) / (double)hotLookups;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bigtesting.It;
+import org.bigtesting.ItRunner;
+import org.bigtesting.routd.CombinedRegexRouter;
+import org.bigtesting.routd.RegexRouter;
+import org.bigtesting.routd.Route;
+import org.junit.runner.RunWith;
+
+@RunWith(ItRunner.class)
+public class TestCombinedRegexRouter extends RouterContractTest<CombinedRegexRouter> {
+    
+    protected CombinedRegexRouter newRouter() {
+        return new CombinedRegexRouter();
+    }
+    
+    @It("routes the same paths to the same routes as a RegexRouter")
+    void combinedTest1() {
+        
+        List<Route> routes = new ArrayList<Route>();
+        routes.add(new Route("/"));
+        routes.add(new Route("/*"));
+        routes.add(new Route("/:name"));
+        routes.add(new Route("/:name/about"));
+        routes.add(new Route("/a/*/c"));
+        routes.add(new Route("/a/:b/c"));
+        routes.add(new Route("/a/b/c"));
+        routes.add(new Route("/a/:id<[0-9]+>"));
+        routes.add(new Route("/a/:name/"));
+        routes.add(new Route("/g/h$.html"));
+        routes.add(new Route("/r/:x<(a)\\2>"));
+        routes.add(new Route("/r/:y<(b)(c)>"));
+        for (int i = 0; i < 200; i++) {
+            routes.add(new Route("/many/:id<[0-9]+>/" + i));
+            routes.add(new Route("/many/" + i + "/:name"));
+        }
+        
+        String[] paths = {"/", "/z", "/z/about", "/a", "/a/", "/a/b", "/a/b/", "/a/b/c", "/a/x/c",
+                "/a/123", "/a/123/", "/g/h$.html", "/g/h%24.html", "/r/aa", "/r/bc", "/r/ab",
+                "/many/7/150", "/many/150/x", "/many/x/x", "/many/199/199", "/%61/b/c"};
+        
+        RegexRouter regex = new RegexRouter();
+        CombinedRegexRouter combined = new CombinedRegexRouter();
+        for (Route route : routes) {
+            regex.add(route);
+            combined.add(route);
+        }
+        
+        for (String path : paths) {
+            assertEquals(path, regex.route(path), combined.route(path));
+        }
+    }
+    
+    @It("routes correctly after routes are added to a router that has already routed")
+    void combinedTest2() {
+        
+        router.add(new Route("/a/:b"));
+        assertEquals(new Route("/a/:b"), router.route("/a/b"));
+        
+        router.add(new Route("/a/b"));
+        assertEquals(new Route("/a/b"), router.route("/a/b"));
+        assertNull(router.route("/c"));
+        
+        router.add(new Route("/:c"));
+        assertEquals(new Route("/:c"), router.route("/c"));
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bigtesting.It;
+import org.bigtesting.ItRunner;
+import org.bigtesting.routd.FrozenRouter;
+import org.bigtesting.routd.Route;
+import org.bigtesting.routd.RouteMatch;
+import org.bigtesting.routd.Router;
+import org.bigtesting.routd.TreeRouter;
+import org.bigtesting.routd.tests.TestFrozenRouter.FreezingRouter;
+import org.junit.runner.RunWith;
+
+@RunWith(ItRunner.class)
+public class TestFrozenRouter extends RouterContractTest<FreezingRouter> {
+    
+    protected FreezingRouter newRouter() {
+        return new FreezingRouter();
+    }
+    
+    @It("does not allow routes to be added")
+    void frozenTest1() {
+        
+        FrozenRouter frozen = new FrozenRouter(Arrays.asList(new Route("/a")));
+        try {
+            frozen.add(new Route("/b"));
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            /* expected */
+        }
+        assertEquals(new Route("/a"), frozen.route("/a"));
+        assertNull(frozen.route("/b"));
+    }
+    
+    @It("routes nothing when it has no routes")
+    void frozenTest2() {
+        
+        FrozenRouter frozen = new FrozenRouter(new TreeRouter());
+        assertNull(frozen.route("/"));
+        assertNull(frozen.match("/a"));
+    }
+    
+    @It("is not affected by routes later added to the router it was built from")
+    void frozenTest3() {
+        
+        TreeRouter tree = new TreeRouter();
+        tree.add(new Route("/a"));
+        FrozenRouter frozen = tree.freeze();
+        tree.add(new Route("/b"));
+        
+        assertEquals(new Route("/b"), tree.route("/b"));
+        assertNull(frozen.route("/b"));
+    }
+    
+    @It("tries sibling named parameters with custom regexes in order of precedence")
+    void frozenTest4() {
+        
+        Route r1 = new Route("/x/:a<[0-9]+>");
+        Route r2 = new Route("/x/:b<([a-z])([a-z]+)>");
+        Route r3 = new Route("/x/:c<[a-z0-9]+>");
+        Route r4 = new Route("/x/:d");
+        FrozenRouter frozen = new FrozenRouter(Arrays.asList(r1, r2, r3, r4));
+        
+        assertEquals(r1, frozen.route("/x/123"));
+        assertEquals(r2, frozen.route("/x/abc"));
+        assertEquals(r3, frozen.route("/x/a1"));
+        assertEquals(r4, frozen.route("/x/A-1"));
+        
+        RouteMatch match = frozen.match("/x/a1");
+        assertEquals(r3, match.getRoute());
+        assertEquals("a1", match.getNamedParameter("c"));
+    }
+    
+    @It("handles custom regexes with back references")
+    void frozenTest5() {
+        
+        Route r1 = new Route("/x/:a<(a)\\2>");
+        Route r2 = new Route("/x/:b<(b)\\2>");
+        FrozenRouter frozen = new FrozenRouter(Arrays.asList(r1, r2));
+        
+        assertEquals(r1, frozen.route("/x/aa"));
+        assertEquals(r2, frozen.route("/x/bb"));
+        assertNull(frozen.route("/x/ab"));
+    }
+    
+    @It("routes the same paths to the same routes as a TreeRouter")
+    void frozenTest6() {
+        
+        List<Route> routes = Arrays.asList(
+                new Route("/"),
+                new Route("/*"),
+                new Route("/a/*/c"),
+                new Route("/a/:b/c"),
+                new Route("/a/b/c"),
+                new Route("/a/:id<[0-9]+>"),
+                new Route("/a/:name"),
+                new Route("/a/:name/"),
+                new Route("/a/b/*"),
+                new Route("/d/:x/:y<[a-z]+>/e"),
+                new Route("/d/:x/f"),
+                new Route("/g/h$.html"));
+        String[] paths = {"/", "/z", "/a", "/a/", "/a/b", "/a/b/", "/a/b/c", "/a/x/c",
+                "/a/123", "/a/123/", "/a/b/x/y", "/d/1/ab/e", "/d/1/f", "/d/1/f/",
+                "/d/1/2/e", "/g/h$.html", "/g/h%24.html", "/a/%2F/c", "/a/x%20y"};
+        
+        TreeRouter tree = new TreeRouter();
+        for (Route route : routes) {
+            tree.add(route);
+        }
+        FrozenRouter frozen = tree.freeze();
+        
+        for (String path : paths) {
+            assertEquals(path, tree.route(path), frozen.route(path));
+            RouteMatch expected = tree.match(path);
+            RouteMatch actual = frozen.match(path);
+            if (expected == null) {
+                assertNull(path, actual);
+            } else {
+                assertEquals(path, expected.getRoute(), actual.getRoute());
+                assertArrayEquals(path, expected.splat(), actual.splat());
+                for (int i = 0; i < expected.getRoute().getNamedParameterElements().size(); i++) {
+                    assertEquals(path, expected.getNamedParameter(i), actual.getNamedParameter(i));
+                }
+            }
+        }
+    }
+    
+    @It("routes through runs of static segments the same way as a TreeRouter")
+    void frozenTest7() {
+        
+        List<Route> routes = Arrays.asList(
+                new Route("/a/b/c/d"),
+                new Route("/a/:x"),
+                new Route("/a/b/c/d/e/f/"),
+                new Route("/a/b/c/d/e/:g"),
+                new Route("/v1/api/users/:id/posts/all"),
+                new Route("/v1/api/users/:id/posts/:post"),
+                new Route("/v1/api/*"));
+        String[] paths = {"/a/b", "/a/b/c", "/a/b/c/d", "/a/b/c/x", "/a/b/c/d/e", "/a/b/c/d/e/",
+                "/a/b/c/d/e/f", "/a/b/c/d/e/f/", "/a/b/c/d/e/%66", "/a/%62/c/d", "/v1/api/users",
+                "/v1/api/users/1/posts", "/v1/api/users/1/posts/all", "/v1/api/users/1/posts/2"};
+        
+        TreeRouter tree = new TreeRouter();
+        for (Route route : routes) {
+            tree.add(route);
+        }
+        FrozenRouter frozen = tree.freeze();
+        
+        for (String path : paths) {
+            assertEquals(path, tree.route(path), frozen.route(path));
+        }
+        assertEquals(new Route("/a/b/c/d"), frozen.route("/a/b/c/d"));
+        assertEquals(new Route("/a/:x"), frozen.route("/a/b"));
+        assertNull(frozen.route("/a/b/c"));
+    }
+    
+    @It("counts backtracks out of runs of static segments as a TreeRouter does")
+    void frozenTest9() {
+        
+        TreeRouter tree = new TreeRouter();
+        tree.add(new Route("/a/b/c"));
+        tree.add(new Route("/:p/b/d"));
+        tree.add(new Route("/x/y/z/:q/w"));
+        tree.add(new Route("/:p/y/z/1/v"));
+        String[] paths = {"/a/b/c", "/a/b/d", "/z/b/d", "/x/y/z/1/w", "/x/y/z/1/v", "/x/y/q/1/v"};
+        
+        for (int maxBacktracks = 0; maxBacktracks <= 4; maxBacktracks++) {
+            tree.setMaxBacktracks(maxBacktracks);
+            FrozenRouter frozen = tree.freeze();
+            for (String path : paths) {
+                assertEquals(maxBacktracks + " " + path, tree.route(path), frozen.route(path));
+            }
+        }
+        
+        tree.setMaxBacktracks(0);
+        assertNull(tree.freeze().route("/a/b/d"));
+        tree.setMaxBacktracks(1);
+        assertNull(tree.freeze().route("/a/b/d"));
+        tree.setMaxBacktracks(2);
+        assertEquals(new Route("/:p/b/d"), tree.freeze().route("/a/b/d"));
+    }
+    
+    @It("routes equally named static segments that follow a blank segment as a TreeRouter")
+    void frozenTest8() {
+        
+        List<Route> routes = Arrays.asList(
+                new Route("/a/b/c"),
+                new Route("/a//b"),
+                new Route("/a//b/:id"),
+                new Route("/a/b/d/e"));
+        String[] paths = {"/a/b", "/a/b/c", "/a/b/d", "/a/b/d/e", "/a/b/x", "/a/x"};
+        
+        for (List<Route> order : Arrays.asList(routes, reversed(routes))) {
+            
+            TreeRouter tree = new TreeRouter();
+            router = newRouter();
+            for (Route route : order) {
+                tree.add(route);
+                router.add(route);
+            }
+            for (String path : paths) {
+                assertEquals(path, tree.route(path), router.route(path));
+            }
+            assertEquals(new Route("/a//b"), router.route("/a/b"));
+            assertEquals(new Route("/a/b/c"), router.route("/a/b/c"));
+            assertEquals("d", router.match("/a/b/d").getNamedParameter("id"));
+        }
+    }
+    
+    private static List<Route> reversed(List<Route> routes) {
+        
+        List<Route> reversed = new ArrayList<Route>(routes);
+        Collections.reverse(reversed);
+        return reversed;
+    }
+    
+    /*
+     * a router that collects routes, and freezes them when routing
+     */
+    public static class FreezingRouter implements Router {
+        
+        private final TreeRouter tree = new TreeRouter();
+        private FrozenRouter frozen;
+        
+        public void add(Route route) {
+            tree.add(route);
+            frozen = null;
+        }
+        
+        public boolean remove(Route route) {
+            frozen = null;
+            return tree.remove(route);
+        }
+        
+        public boolean replace(Route route, Route replacement) {
+            frozen = null;
+            return tree.replace(route, replacement);
+        }
+        
+        public Route route(String path) {
+            return frozen().route(path);
+        }
+        
+        public RouteMatch match(String path) {
+            return frozen().match(path);
+        }
+        
+        private FrozenRouter frozen() {
+            if (frozen == null) frozen = tree.freeze();
+            return frozen;
+        }
+    }
+}
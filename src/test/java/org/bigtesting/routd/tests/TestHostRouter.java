@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd.tests;
+
+import static org.junit.Assert.*;
+
+import org.bigtesting.It;
+import org.bigtesting.ItRunner;
+import org.bigtesting.routd.HostRouter;
+import org.bigtesting.routd.Route;
+import org.bigtesting.routd.RouteMatch;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+
+@RunWith(ItRunner.class)
+public class TestHostRouter {
+    
+    private HostRouter router;
+    
+    @Before
+    public void beforeEachTest() {
+        
+        router = new HostRouter();
+    }
+    
+    @It("routes by exact host")
+    void hostTest1() {
+        
+        Route r1 = new Route("/users/:id");
+        Route r2 = new Route("/orders/:id");
+        router.add("api.example.com", r1);
+        router.add("shop.example.com", r2);
+        
+        assertEquals(r1, router.route("api.example.com", "/users/1"));
+        assertNull(router.route("api.example.com", "/orders/1"));
+        assertEquals(r2, router.route("shop.example.com", "/orders/1"));
+        assertNull(router.route("other.example.com", "/users/1"));
+        assertNull(router.getRouter("other.example.com"));
+        
+        RouteMatch match = router.match("api.example.com", "/users/1");
+        assertEquals("1", match.getNamedParameter("id"));
+    }
+    
+    @It("ignores the case, port and trailing dot of a host")
+    void hostTest2() {
+        
+        Route r1 = new Route("/");
+        router.add("API.Example.com", r1);
+        
+        assertEquals(r1, router.route("api.example.com", "/"));
+        assertEquals(r1, router.route("Api.Example.COM:8080", "/"));
+        assertEquals(r1, router.route("api.example.com.", "/"));
+    }
+    
+    @It("routes by the longest matching wildcard host")
+    void hostTest3() {
+        
+        Route r1 = new Route("/a");
+        Route r2 = new Route("/b");
+        Route r3 = new Route("/c");
+        router.add("*.example.com", r1);
+        router.add("*.tenant.example.com", r2);
+        router.add("*", r3);
+        
+        assertEquals(r1, router.route("www.example.com", "/a"));
+        assertEquals(r1, router.route("tenant.example.com", "/a"));
+        assertEquals(r2, router.route("acme.tenant.example.com", "/b"));
+        assertEquals(r2, router.route("eu.acme.tenant.example.com", "/b"));
+        assertNull(router.route("acme.tenant.example.com", "/a"));
+        assertEquals(r3, router.route("example.com", "/c"));
+        assertEquals(r3, router.route("example.org", "/c"));
+        assertEquals(r3, router.route(null, "/c"));
+    }
+    
+    @It("prefers an exact host to a wildcard host")
+    void hostTest4() {
+        
+        Route r1 = new Route("/a");
+        Route r2 = new Route("/b");
+        router.add("*.example.com", r1);
+        router.add("www.example.com", r2);
+        
+        assertEquals(r2, router.route("www.example.com", "/b"));
+        assertNull(router.route("www.example.com", "/a"));
+        assertEquals(r1, router.route("api.example.com", "/a"));
+    }
+    
+    @It("shares a router between hosts with equal route tables")
+    void hostTest5() {
+        
+        for (int i = 0; i < 400; i++) {
+            String host = i % 2 == 0 ? "tenant" + i + ".example.com" : "*.tenant" + i + ".example.com";
+            router.add(host, new Route("/users/:id"));
+            router.add(host, "POST", new Route("/users"));
+        }
+        router.add("admin.example.com", new Route("/admin"));
+        
+        assertEquals(2, router.getRouterCount());
+        assertSame(router.getRouter("tenant0.example.com"), router.getRouter("x.tenant1.example.com"));
+        assertEquals(new Route("/users"), router.route("tenant398.example.com", "POST", "/users"));
+        assertNull(router.route("tenant398.example.com", "GET", "/users"));
+        assertEquals(new Route("/admin"), router.route("admin.example.com", "/admin"));
+    }
+    
+    @It("routes with routes added after routing")
+    void hostTest6() {
+        
+        router.add("a.example.com", new Route("/x"));
+        router.add("b.example.com", new Route("/x"));
+        assertEquals(1, router.getRouterCount());
+        assertNull(router.route("a.example.com", "/y"));
+        
+        router.add("a.example.com", new Route("/y"));
+        assertEquals(new Route("/y"), router.route("a.example.com", "/y"));
+        assertNull(router.route("b.example.com", "/y"));
+        assertEquals(2, router.getRouterCount());
+    }
+    
+    @It("rejects invalid hosts")
+    void hostTest7() {
+        
+        String[] invalid = {"", "a.*.com", "*example.com", "**.example.com", "a*"};
+        for (String host : invalid) {
+            try {
+                router.add(host, new Route("/"));
+                fail("expected IllegalArgumentException for " + host);
+            } catch (IllegalArgumentException e) {
+                /* expected */
+            }
+        }
+    }
+}
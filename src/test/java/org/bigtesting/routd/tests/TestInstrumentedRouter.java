@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd.tests;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.bigtesting.It;
+import org.bigtesting.ItRunner;
+import org.bigtesting.routd.InstrumentedRouter;
+import org.bigtesting.routd.Route;
+import org.bigtesting.routd.RouterMetrics;
+import org.bigtesting.routd.TreeRouter;
+import org.junit.runner.RunWith;
+
+@RunWith(ItRunner.class)
+public class TestInstrumentedRouter extends RouterContractTest<InstrumentedRouter> {
+    
+    protected InstrumentedRouter newRouter() {
+        return new InstrumentedRouter(new TreeRouter());
+    }
+    
+    @It("counts hits per route, misses, and the latency of each lookup")
+    void metricsTest1() {
+        
+        Route r1 = new Route("/clients/:id");
+        Route r2 = new Route("/clients/all");
+        router.add(r1);
+        router.add(r2);
+        
+        router.route("/clients/1");
+        router.match("/clients/2");
+        router.route("/clients/all");
+        router.route("/other");
+        
+        RouterMetrics.Snapshot snapshot = router.getMetrics().snapshot();
+        assertEquals(3, snapshot.getHitCount());
+        assertEquals(1, snapshot.getMissCount());
+        assertEquals(2, snapshot.getHitCount(r1));
+        assertEquals(1, snapshot.getHitCount(r2));
+        assertEquals(0, snapshot.getHitCount(new Route("/none")));
+        
+        long lookups = 0;
+        for (long count : snapshot.getLatencyHistogram()) lookups += count;
+        assertEquals(4, lookups);
+        assertTrue(snapshot.getLatencyPercentile(0.5) <= snapshot.getLatencyPercentile(0.99));
+        assertTrue(snapshot.getLatencyPercentile(0.99) > 0);
+        
+        router.getMetrics().reset();
+        snapshot = router.getMetrics().snapshot();
+        assertEquals(0, snapshot.getHitCount());
+        assertEquals(0, snapshot.getHitCount(r1));
+        assertEquals(0, snapshot.getLatencyPercentile(0.5));
+    }
+    
+    @It("records the nodes visited and regexes evaluated by a TreeRouter's searches")
+    void metricsTest2() {
+        
+        RouterMetrics metrics = new RouterMetrics();
+        TreeRouter tree = new TreeRouter(metrics);
+        tree.add(new Route("/clients/:id<[0-9]+>/files"));
+        tree.add(new Route("/clients/:name<(a|b)+>"));
+        tree.add(new Route("/clients/all"));
+        
+        tree.route("/clients/all");
+        RouterMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.getSearchCount());
+        assertEquals(3, snapshot.getNodesVisited());
+        assertEquals(0, snapshot.getRegexEvaluations());
+        
+        /* [0-9]+ is scanned, and only (a|b)+ is evaluated as a regex */
+        tree.route("/clients/abba");
+        snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getSearchCount());
+        assertEquals(6, snapshot.getNodesVisited());
+        assertEquals(1, snapshot.getRegexEvaluations());
+        assertEquals(0, snapshot.getBacktracks());
+        
+        InstrumentedRouter instrumented = new InstrumentedRouter(tree, metrics);
+        instrumented.route("/clients/7/files");
+        snapshot = metrics.snapshot();
+        assertEquals(3, snapshot.getSearchCount());
+        assertEquals(1, snapshot.getHitCount());
+    }
+    
+    @It("counts lookups made concurrently by many threads")
+    void metricsTest3() throws Exception {
+        
+        final Route r1 = new Route("/clients/:id");
+        router.add(r1);
+        
+        final int threads = 4;
+        final int lookups = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < lookups; i++) {
+                        router.route(i % 2 == 0 ? "/clients/" + i : "/other/" + i);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        
+        RouterMetrics.Snapshot snapshot = router.getMetrics().snapshot();
+        assertEquals(threads * lookups / 2, snapshot.getHitCount());
+        assertEquals(threads * lookups / 2, snapshot.getMissCount());
+        assertEquals(threads * lookups / 2, snapshot.getHitCount(r1));
+    }
+    
+    @It("exposes the metrics through JMX")
+    void metricsTest4() throws Exception {
+        
+        Route r1 = new Route("/clients/:id");
+        router.add(r1);
+        router.route("/clients/1");
+        router.route("/other");
+        
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.bigtesting.routd:type=RouterMetrics,name=test");
+        router.getMetrics().registerMBean(name);
+        try {
+            assertEquals(1L, server.getAttribute(name, "HitCount"));
+            assertEquals(1L, server.getAttribute(name, "MissCount"));
+            assertNotNull(server.getAttribute(name, "RouteHits"));
+            
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertEquals(0L, server.getAttribute(name, "HitCount"));
+        } finally {
+            router.getMetrics().unregisterMBean(name);
+        }
+        assertFalse(server.isRegistered(name));
+    }
+    
+    @It("forgets the hits of a route once it is removed or replaced")
+    void metricsTest5() {
+        
+        Route r1 = new Route("/clients/:id");
+        Route r2 = new Route("/clients/all");
+        Route r3 = new Route("/clients/none");
+        router.add(r1);
+        router.add(r2);
+        router.route("/clients/1");
+        router.route("/clients/all");
+        
+        assertTrue(router.remove(r1));
+        RouterMetrics.Snapshot snapshot = router.getMetrics().snapshot();
+        assertFalse(snapshot.getRouteHits().containsKey(r1));
+        assertEquals(1, snapshot.getHitCount(r2));
+        assertEquals(2, snapshot.getHitCount());
+        
+        assertTrue(router.replace(r2, r3));
+        router.route("/clients/none");
+        snapshot = router.getMetrics().snapshot();
+        assertEquals(Collections.singletonMap(r3, 1L), snapshot.getRouteHits());
+        
+        assertFalse(router.remove(r1));
+        assertTrue(router.replace(r3, new Route("/clients/none")));
+        assertEquals(1, router.getMetrics().snapshot().getHitCount(r3));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.bigtesting.It;
+import org.bigtesting.ItRunner;
+import org.bigtesting.routd.MethodRouter;
+import org.bigtesting.routd.Route;
+import org.bigtesting.routd.RouteMatch;
+import org.bigtesting.routd.TreeRouter;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+
+/*
+ * each test checks both a TreeRouter and the FrozenRouter built from it
+ */
+@RunWith(ItRunner.class)
+public class TestMethodRouting {
+    
+    private TreeRouter tree;
+    
+    @Before
+    public void beforeEachTest() {
+        
+        tree = new TreeRouter();
+    }
+    
+    @It("routes by method and path")
+    void methodTest1() {
+        
+        Route getUser = new Route("/users/:id");
+        Route putUser = new Route("/users/:id");
+        Route postUsers = new Route("/users");
+        tree.add("GET", getUser);
+        tree.add("PUT", putUser);
+        tree.add("POST", postUsers);
+        
+        for (MethodRouter router : routers()) {
+            
+            assertSame(getUser, router.route("GET", "/users/1"));
+            assertSame(putUser, router.route("PUT", "/users/1"));
+            assertSame(postUsers, router.route("POST", "/users"));
+            assertNull(router.route("GET", "/users"));
+            assertNull(router.route("get", "/users/1"));
+            assertNull(router.route("GET", "/accounts"));
+            
+            RouteMatch match = router.match("PUT", "/users/1");
+            assertSame(putUser, match.getRoute());
+            assertTrue(match.isMethodAllowed());
+            assertEquals("1", match.getNamedParameter("id"));
+            assertEquals(methods("GET", "PUT"), match.getAllowedMethods());
+        }
+    }
+    
+    @It("returns a match that does not allow the method when the path matches for other methods only")
+    void methodTest2() {
+        
+        tree.add("GET", new Route("/users/:id"));
+        tree.add("DELETE", new Route("/users/:id"));
+        
+        for (MethodRouter router : routers()) {
+            
+            RouteMatch match = router.match("POST", "/users/1");
+            assertNotNull(match);
+            assertFalse(match.isMethodAllowed());
+            assertEquals(new Route("/users/:id"), match.getRoute());
+            assertEquals("1", match.getNamedParameter("id"));
+            assertEquals(methods("GET", "DELETE"), match.getAllowedMethods());
+            
+            assertNull(router.match("POST", "/accounts/1"));
+        }
+    }
+    
+    @It("matches routes added without a method for any method")
+    void methodTest3() {
+        
+        Route any = new Route("/files/*");
+        Route put = new Route("/files/*");
+        tree.add(any);
+        tree.add("PUT", put);
+        
+        for (MethodRouter router : routers()) {
+            
+            assertSame(any, router.route("GET", "/files/a.txt"));
+            assertSame(put, router.route("PUT", "/files/a.txt"));
+            assertSame(any, router.route("/files/a.txt"));
+            
+            RouteMatch match = router.match("PATCH", "/files/a.txt");
+            assertSame(any, match.getRoute());
+            assertTrue(match.isMethodAllowed());
+            assertEquals("a.txt", match.getSplatParameter(0));
+        }
+    }
+    
+    @It("routes paths with routes for methods only when no method is given")
+    void methodTest4() {
+        
+        Route get = new Route("/users/:id");
+        tree.add("GET", get);
+        tree.add("PUT", new Route("/users/:id"));
+        
+        for (MethodRouter router : routers()) {
+            
+            assertSame(get, router.route("/users/1"));
+            RouteMatch match = router.match("/users/1");
+            assertSame(get, match.getRoute());
+            assertTrue(match.getAllowedMethods().isEmpty());
+        }
+    }
+    
+    @It("replaces the route of a method when it is added again")
+    void methodTest5() {
+        
+        Route first = new Route("/users");
+        Route second = new Route("/users");
+        tree.add("GET", first);
+        tree.add("GET", second);
+        
+        for (MethodRouter router : routers()) {
+            assertSame(second, router.route("GET", "/users"));
+            assertEquals(methods("GET"), router.match("GET", "/users").getAllowedMethods());
+        }
+    }
+    
+    @It("does not allow routes to be added without a method")
+    void methodTest6() {
+        
+        try {
+            tree.add(null, new Route("/users"));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("method cannot be null", e.getMessage());
+        }
+    }
+    
+    private MethodRouter[] routers() {
+        return new MethodRouter[] {tree, tree.freeze()};
+    }
+    
+    private static Set<String> methods(String...methods) {
+        return new LinkedHashSet<String>(Arrays.asList(methods));
+    }
+}
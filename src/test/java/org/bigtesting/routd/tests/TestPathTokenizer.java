@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd.tests;
+
+import static org.junit.Assert.*;
+
+import org.bigtesting.It;
+import org.bigtesting.ItRunner;
+import org.bigtesting.routd.PathTokenizer;
+import org.junit.runner.RunWith;
+
+@RunWith(ItRunner.class)
+public class TestPathTokenizer {
+
+    private final PathTokenizer tokenizer = new PathTokenizer();
+
+    @It("produces no tokens for the root path")
+    void tokenizeTest1() {
+
+        tokenizer.tokenize("/");
+        assertTokens();
+    }
+
+    @It("produces a token for each element of the path")
+    void tokenizeTest2() {
+
+        tokenizer.tokenize("/cntrl/actn/123");
+        assertTokens("cntrl", "actn", "123");
+        assertEquals(1, tokenizer.rawStart(0));
+        assertEquals(6, tokenizer.rawEnd(0));
+        assertEquals(12, tokenizer.rawStart(2));
+        assertEquals(15, tokenizer.rawEnd(2));
+    }
+
+    @It("does not create strings for tokens that do not require decoding")
+    void tokenizeTest3() {
+
+        String path = "/cntrl/actn";
+        tokenizer.tokenize(path);
+        assertSame(path, tokenizer.source(0));
+        assertSame(path, tokenizer.source(1));
+        assertEquals(7, tokenizer.start(1));
+        assertEquals(11, tokenizer.end(1));
+    }
+
+    @It("produces a separator token when the path ends with a separator")
+    void tokenizeTest4() {
+
+        tokenizer.tokenize("/hello/");
+        assertTokens("hello", "/");
+        assertEquals(7, tokenizer.rawStart(1));
+        assertEquals(7, tokenizer.rawEnd(1));
+    }
+
+    @It("ignores blank elements and surrounding whitespace")
+    void tokenizeTest5() {
+
+        tokenizer.tokenize("  /hello// /world  ");
+        assertTokens("hello", "world");
+
+        tokenizer.tokenize("hello/world");
+        assertTokens("hello", "world");
+
+        tokenizer.tokenize("/hello/ ");
+        assertTokens("hello", "/");
+    }
+
+    @It("decodes tokens for routing")
+    void tokenizeTest6() {
+
+        tokenizer.tokenize("/f%C3%B6%C3%B6/foo%2Fbar/a+space/%20");
+        assertTokens("föö", "foo%2fbar", "a space", "/");
+        assertEquals(15, tokenizer.rawStart(1));
+        assertEquals(24, tokenizer.rawEnd(1));
+    }
+
+    @It("trims encoded whitespace at the ends of the path")
+    void tokenizeTest7() {
+
+        tokenizer.tokenize("/hello%20");
+        assertTokens("hello");
+
+        tokenizer.tokenize("%20hello/a+b");
+        assertTokens("hello", "a b");
+    }
+
+    @It("rejects null and empty paths")
+    void tokenizeTest8() {
+
+        try {
+            tokenizer.tokenize(null);
+            fail("should have thrown IllegalArgumentException");
+        } catch (IllegalArgumentException e) {}
+
+        try {
+            tokenizer.tokenize("  ");
+            fail("should have thrown IllegalArgumentException");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    @It("handles paths with many elements")
+    void tokenizeTest9() {
+
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            path.append("/").append(i);
+        }
+        tokenizer.tokenize(path.toString());
+        assertEquals(100, tokenizer.size());
+        assertEquals("99", tokenizer.token(99));
+    }
+
+    private void assertTokens(String...expected) {
+
+        assertEquals(expected.length, tokenizer.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], tokenizer.token(i));
+            assertEquals(expected[i], tokenizer.source(i).subSequence(
+                    tokenizer.start(i), tokenizer.end(i)).toString());
+        }
+    }
+}
@@ -15,7 +15,16 @@
  */
 package org.bigtesting.routd.tests;
 
+import static org.junit.Assert.*;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bigtesting.It;
 import org.bigtesting.routd.RegexRouter;
+import org.bigtesting.routd.Route;
 
 /**
  * 
@@ -27,4 +36,50 @@ public class TestRegexRouter extends RouterContractTest<RegexRouter> {
     protected RegexRouter newRouter() {
         return new RegexRouter();
     }
+    
+    @It("never lets a lookup miss both a route and its replacement")
+    void replaceTest5() throws Exception {
+        
+        /*
+         * the splat takes precedence, and the static routes come between the 
+         * two, so a lookup may pass the splat's place before it is added, and
+         * reach the named parameter's place after it is removed
+         */
+        final Route named = new Route("/flag/:id");
+        final Route splat = new Route("/flag/*");
+        router.add(named);
+        for (int i = 0; i < 500; i++) {
+            router.add(new Route("/flag/s" + i));
+        }
+        
+        final AtomicBoolean replacing = new AtomicBoolean(true);
+        final Queue<String> failures = new ConcurrentLinkedQueue<String>();
+        final CountDownLatch readersDone = new CountDownLatch(2);
+        for (int r = 0; r < 2; r++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        do {
+                            Route route = router.route("/flag/123");
+                            if (!named.equals(route) && !splat.equals(route)) {
+                                failures.add("expected a flag route but was " + route);
+                            }
+                        } while (replacing.get() && failures.isEmpty());
+                    } finally {
+                        readersDone.countDown();
+                    }
+                }
+            }.start();
+        }
+        
+        for (int i = 0; i < 2000 && failures.isEmpty(); i++) {
+            assertTrue(router.replace(named, splat));
+            assertTrue(router.replace(splat, named));
+        }
+        replacing.set(false);
+        readersDone.await();
+        
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(named, router.route("/flag/123"));
+    }
 }
@@ -22,6 +22,7 @@
 import org.bigtesting.routd.NamedParameterElement;
 import org.bigtesting.routd.PathElement;
 import org.bigtesting.routd.Route;
+import org.bigtesting.routd.RouteSyntaxException;
 import org.bigtesting.routd.SplatParameterElement;
 import org.bigtesting.routd.StaticPathElement;
 import org.junit.Test;
@@ -752,4 +753,69 @@ public void getSplatParameter_NotFound() {
         
         assertNull(route.getSplatParameter(1, path));
     }
+    
+    @Test
+    public void getPathElements_IndexesCountBlankSegments() {
+        
+        Route r = new Route(" /cntrl// /:id<[^/]+>/*/ ");
+        
+        List<PathElement> elems = r.getPathElements();
+        assertEquals(3, elems.size());
+        assertEquals(new StaticPathElement("cntrl", 0), elems.get(0));
+        assertEquals(new NamedParameterElement("id", 3, "[^/]+"), elems.get(1));
+        assertEquals(new SplatParameterElement(4), elems.get(2));
+    }
+    
+    @Test
+    public void getNamedParameterElements_SameNameWithAndWithoutRegex() {
+        
+        Route r = new Route("/:id<[0-9]+>/:id");
+        
+        List<NamedParameterElement> params = r.getNamedParameterElements();
+        assertEquals("[0-9]+", params.get(0).regex());
+        assertNull(params.get(1).regex());
+    }
+    
+    @Test
+    public void newRoute_UnclosedRegexThrowsException() {
+        
+        assertSyntaxError("/cntrl/:id<[0-9]+", "unclosed regex", 10);
+    }
+    
+    @Test
+    public void newRoute_EmptyRegexThrowsException() {
+        
+        assertSyntaxError("/cntrl/:id<>", "empty regex", 10);
+    }
+    
+    @Test
+    public void newRoute_CharactersAfterRegexThrowsException() {
+        
+        assertSyntaxError("  /:id<[0-9]+>abc", "unexpected character after regex", 14);
+    }
+    
+    @Test
+    public void newRoute_RegexWithoutNamedParameterThrowsException() {
+        
+        assertSyntaxError("/cntrl<[a-z]+>", "regex without a named parameter", 6);
+    }
+    
+    @Test
+    public void newRoute_MissingNamedParameterNameThrowsException() {
+        
+        assertSyntaxError("/cntrl/:<[a-z]+>", "missing named parameter name", 7);
+    }
+    
+    private static void assertSyntaxError(String path, String description, int index) {
+        
+        try {
+            new Route(path);
+            fail("should have thrown RouteSyntaxException");
+        } catch (RouteSyntaxException e) {
+            assertEquals(description, e.getDescription());
+            assertEquals(path, e.getPath());
+            assertEquals(index, e.getIndex());
+            assertEquals(description + " at index " + index + " of route path: " + path, e.getMessage());
+        }
+    }
 }
@@ -17,6 +17,7 @@
 
 import static org.junit.Assert.*;
 
+import java.net.URLDecoder;
 import java.util.Arrays;
 
 import org.bigtesting.It;
@@ -117,4 +118,41 @@ void escapeNonCustomRegex() {
         assertEquals("foo bar", RouteHelper.urlDecodeForPathParams(param));
     }
     
+    @It("returns the same string if there is nothing to decode") void urlDecodeNoopTest() {
+        
+        String path = "/hello/there/föö";
+        assertSame(path, RouteHelper.urlDecodeForRouting(path));
+        assertSame(path, RouteHelper.urlDecodeForPathParams(path));
+        assertSame(path, RouteHelper.urlDecode(path));
+        
+        path = "a+b";
+        assertSame(path, RouteHelper.urlDecodeForPathParams(path));
+    }
+    
+    @It("url decodes multi-byte characters and encoded separators") void urlDecodeMultiByteTest() {
+        
+        assertEquals("/föö", RouteHelper.urlDecodeForRouting("/f%C3%B6%c3%b6"));
+        assertEquals("/föö%2fbar", RouteHelper.urlDecodeForRouting("/f%C3%B6%C3%B6%2Fbar"));
+        assertEquals("föö/bar", RouteHelper.urlDecodeForPathParams("f%C3%B6%C3%B6%2Fbar"));
+    }
+    
+    @It("url decodes in the same way as URLDecoder") void urlDecodeTest() throws Exception {
+        
+        String[] strings = new String[]{
+                "", "%20", "a+b", "%2F%2f", "%C3%B6+%e2%82%ac/x", "%41%42%43", "100%25", "%C3"};
+        for (String s : strings) {
+            assertEquals(URLDecoder.decode(s, "UTF-8"), RouteHelper.urlDecode(s));
+        }
+    }
+    
+    @It("rejects invalid escape patterns") void urlDecodeInvalidTest() {
+        
+        String[] strings = new String[]{"%", "abc%2", "%zz", "%-1"};
+        for (String s : strings) {
+            try {
+                RouteHelper.urlDecodeForRouting(s);
+                fail("should have thrown IllegalArgumentException for " + s);
+            } catch (IllegalArgumentException e) {}
+        }
+    }
 }
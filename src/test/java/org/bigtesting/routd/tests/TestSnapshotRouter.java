@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.bigtesting.It;
+import org.bigtesting.ItRunner;
+import org.bigtesting.routd.Route;
+import org.bigtesting.routd.RouteMatch;
+import org.bigtesting.routd.Router;
+import org.bigtesting.routd.SnapshotRouter;
+import org.bigtesting.routd.TreeRouter;
+import org.bigtesting.routd.tests.TestSnapshotRouter.SnapshottingRouter;
+import org.junit.runner.RunWith;
+
+@RunWith(ItRunner.class)
+public class TestSnapshotRouter extends RouterContractTest<SnapshottingRouter> {
+    
+    protected SnapshottingRouter newRouter() {
+        return new SnapshottingRouter();
+    }
+    
+    @It("loads a snapshot written to a file")
+    void snapshotTest1() throws IOException {
+        
+        TreeRouter tree = new TreeRouter();
+        tree.add(new Route("/a/:id<[0-9]+>"));
+        tree.add(new Route("/b/*"));
+        
+        File file = File.createTempFile("routes", ".snapshot");
+        file.deleteOnExit();
+        try {
+            SnapshotRouter.write(tree, file);
+            SnapshotRouter snapshot = new SnapshotRouter(file);
+            
+            assertEquals(new Route("/a/:id<[0-9]+>"), snapshot.route("/a/12"));
+            assertEquals(new Route("/b/*"), snapshot.route("/b/c/d"));
+            assertEquals("12", snapshot.match("/a/12").getNamedParameter("id"));
+            assertEquals("c/d", snapshot.match("/b/c/d").splat()[0]);
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @It("does not allow routes to be added")
+    void snapshotTest2() throws IOException {
+        
+        SnapshotRouter snapshot = snapshotOf(new TreeRouter());
+        try {
+            snapshot.add(new Route("/b"));
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            /* expected */
+        }
+        assertNull(snapshot.route("/"));
+        assertNull(snapshot.match("/b"));
+    }
+    
+    @It("rejects a buffer that does not hold a snapshot")
+    void snapshotTest3() {
+        
+        try {
+            new SnapshotRouter(ByteBuffer.wrap(new byte[64]));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("not a route snapshot", e.getMessage());
+        }
+    }
+    
+    @It("routes by method as the TreeRouter it was written from")
+    void snapshotTest4() throws IOException {
+        
+        TreeRouter tree = new TreeRouter();
+        Route get = new Route("/users/:id");
+        Route put = new Route("/users/:id");
+        tree.add("GET", get);
+        tree.add("PUT", put);
+        tree.add(new Route("/health"));
+        SnapshotRouter snapshot = snapshotOf(tree);
+        
+        assertEquals(get, snapshot.route("GET", "/users/1"));
+        assertEquals(put, snapshot.route("PUT", "/users/1"));
+        assertNull(snapshot.route("POST", "/users/1"));
+        assertEquals(new Route("/health"), snapshot.route("POST", "/health"));
+        
+        RouteMatch match = snapshot.match("POST", "/users/1");
+        assertFalse(match.isMethodAllowed());
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("GET", "PUT")), match.getAllowedMethods());
+        assertEquals("1", match.getNamedParameter("id"));
+    }
+    
+    @It("routes the same paths to the same routes as a TreeRouter")
+    void snapshotTest5() throws IOException {
+        
+        List<Route> routes = Arrays.asList(
+                new Route("/"),
+                new Route("/*"),
+                new Route("/a/*/c"),
+                new Route("/a/:b/c"),
+                new Route("/a/b/c"),
+                new Route("/a/:id<[0-9]+>"),
+                new Route("/a/:name"),
+                new Route("/a/:name/"),
+                new Route("/a/b/*"),
+                new Route("/d/:x/:y<[a-z]+>/e"),
+                new Route("/d/:x/f"),
+                new Route("/g/h$.html"),
+                new Route("/x/:a<(a)\\2>"),
+                new Route("/x/:b<([a-z])([a-z]+)>"));
+        String[] paths = {"/", "/z", "/a", "/a/", "/a/b", "/a/b/", "/a/b/c", "/a/x/c",
+                "/a/123", "/a/123/", "/a/b/x/y", "/d/1/ab/e", "/d/1/f", "/d/1/f/",
+                "/d/1/2/e", "/g/h$.html", "/g/h%24.html", "/a/%2F/c", "/a/x%20y", 
+                "/x/aa", "/x/abc", "/x/a1"};
+        
+        TreeRouter tree = new TreeRouter();
+        for (Route route : routes) {
+            tree.add(route);
+        }
+        SnapshotRouter snapshot = snapshotOf(tree);
+        
+        for (String path : paths) {
+            assertEquals(path, tree.route(path), snapshot.route(path));
+            RouteMatch expected = tree.match(path);
+            RouteMatch actual = snapshot.match(path);
+            if (expected == null) {
+                assertNull(path, actual);
+            } else {
+                assertEquals(path, expected.getRoute(), actual.getRoute());
+                assertArrayEquals(path, expected.splat(), actual.splat());
+                for (int i = 0; i < expected.getRoute().getNamedParameterElements().size(); i++) {
+                    assertEquals(path, expected.getNamedParameter(i), actual.getNamedParameter(i));
+                }
+            }
+        }
+    }
+    
+    @It("keeps the most backtracks allowed by the router it was written from")
+    void snapshotTest6() throws IOException {
+        
+        TreeRouter tree = new TreeRouter();
+        tree.add(new Route("/a/:x/c"));
+        tree.add(new Route("/a/b/d"));
+        assertEquals(new Route("/a/:x/c"), snapshotOf(tree).route("/a/b/c"));
+        
+        tree.setMaxBacktracks(0);
+        assertNull(snapshotOf(tree).route("/a/b/c"));
+    }
+    
+    @It("routes equally named static segments that follow a blank segment as a TreeRouter")
+    void snapshotTest7() {
+        
+        List<Route> routes = Arrays.asList(
+                new Route("/a/b/c"),
+                new Route("/a//b"),
+                new Route("/a//b/:id"),
+                new Route("/a/b/d/e"));
+        String[] paths = {"/a/b", "/a/b/c", "/a/b/d", "/a/b/d/e", "/a/b/x", "/a/x"};
+        
+        for (List<Route> order : Arrays.asList(routes, reversed(routes))) {
+            
+            TreeRouter tree = new TreeRouter();
+            router = newRouter();
+            for (Route route : order) {
+                tree.add(route);
+                router.add(route);
+            }
+            for (String path : paths) {
+                assertEquals(path, tree.route(path), router.route(path));
+            }
+            assertEquals(new Route("/a//b"), router.route("/a/b"));
+            assertEquals(new Route("/a/b/c"), router.route("/a/b/c"));
+            assertEquals("d", router.match("/a/b/d").getNamedParameter("id"));
+        }
+    }
+    
+    private static List<Route> reversed(List<Route> routes) {
+        
+        List<Route> reversed = new ArrayList<Route>(routes);
+        Collections.reverse(reversed);
+        return reversed;
+    }
+    
+    private static SnapshotRouter snapshotOf(TreeRouter tree) throws IOException {
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SnapshotRouter.write(tree, out);
+        return new SnapshotRouter(ByteBuffer.wrap(out.toByteArray()));
+    }
+    
+    /*
+     * a router that collects routes, and routes over a snapshot of them
+     */
+    public static class SnapshottingRouter implements Router {
+        
+        private final TreeRouter tree = new TreeRouter();
+        private SnapshotRouter snapshot;
+        
+        public void add(Route route) {
+            tree.add(route);
+            snapshot = null;
+        }
+        
+        public boolean remove(Route route) {
+            snapshot = null;
+            return tree.remove(route);
+        }
+        
+        public boolean replace(Route route, Route replacement) {
+            snapshot = null;
+            return tree.replace(route, replacement);
+        }
+        
+        public Route route(String path) {
+            return snapshot().route(path);
+        }
+        
+        public RouteMatch match(String path) {
+            return snapshot().match(path);
+        }
+        
+        private SnapshotRouter snapshot() {
+            if (snapshot == null) {
+                try {
+                    snapshot = snapshotOf(tree);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return snapshot;
+        }
+    }
+}
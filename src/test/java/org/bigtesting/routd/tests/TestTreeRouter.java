@@ -17,9 +17,25 @@
 
 import static org.junit.Assert.*;
 
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.PatternSyntaxException;
+
 import org.bigtesting.It;
 import org.bigtesting.ItRunner;
+import org.bigtesting.routd.NamedParameterElement;
+import org.bigtesting.routd.RegexRouter;
 import org.bigtesting.routd.Route;
+import org.bigtesting.routd.RouteMatch;
+import org.bigtesting.routd.Router;
+import org.bigtesting.routd.RouterMetrics;
+import org.bigtesting.routd.SplatParameterElement;
+import org.bigtesting.routd.StaticPathElement;
 import org.bigtesting.routd.TreeNode;
 import org.bigtesting.routd.TreeRouter;
 import org.junit.runner.RunWith;
@@ -587,4 +603,628 @@ void treeTest20() {
         assertEquals(r6, child.getRoute());
         assertEquals(0, child.getChildren().size());
     }
+    
+    @It("matches static children by their literal segment among many siblings")
+    void treeTest21() {
+        
+        Route r1 = new Route("/a/:name");
+        Route r2 = new Route("/a/*/b");
+        router.add(r1);
+        router.add(r2);
+        for (int i = 0; i < 300; i++) {
+            router.add(new Route("/a/" + i));
+        }
+        router.add(new Route("/a/x.y"));
+        
+        TreeNode a = router.getRoot().getChildren().get(0);
+        assertEquals(303, a.getChildren().size());
+        assertEquals(3, a.getMatchingChildren("150").size());
+        assertEquals(new Route("/a/150"), a.getMatchingChildren("150").get(1).getRoute());
+        assertEquals(2, a.getMatchingChildren("xay").size());
+        
+        assertEquals(new Route("/a/0"), router.route("/a/0"));
+        assertEquals(new Route("/a/299"), router.route("/a/299"));
+        assertEquals(new Route("/a/x.y"), router.route("/a/x.y"));
+        assertEquals(r1, router.route("/a/xay"));
+        assertEquals(r1, router.route("/a/300"));
+        assertEquals(r2, router.route("/a/300/b"));
+    }
+    
+    @It("does not allocate when routing static paths")
+    void allocationTest1() {
+        
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)bean;
+        if (!threadBean.isThreadAllocatedMemorySupported()) return;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        
+        Route r1 = new Route("/abc/def/ghi");
+        Route r2 = new Route("/abc/def/");
+        router.add(r1);
+        router.add(r2);
+        router.add(new Route("/abc/:name"));
+        for (int i = 0; i < 100; i++) {
+            router.add(new Route("/abc/def/" + i));
+        }
+        
+        int iterations = 100000;
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < iterations; i++) {
+            router.route("/abc/def/ghi");
+            router.route("/abc/def/");
+        }
+        
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            assertSame(r1, router.route("/abc/def/ghi"));
+            assertSame(r2, router.route("/abc/def/"));
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        
+        /* allow for the odd allocation made by the measurement itself */
+        assertTrue("allocated " + allocated + " bytes", allocated < iterations);
+    }
+    
+    @It("does not allocate when routing paths through custom regexes")
+    void allocationTest3() {
+        
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)bean;
+        if (!threadBean.isThreadAllocatedMemorySupported()) return;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        
+        Route r1 = new Route("/api/:version<v[0-9]+(\\.[0-9]+)*>/users");
+        Route r2 = new Route("/api/:date<[0-9]{4}-[0-9]{2}>/users");
+        router.add(r1);
+        router.add(r2);
+        
+        int iterations = 100000;
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < iterations; i++) {
+            router.route("/api/v2.10/users");
+            router.route("/api/2014-06/users");
+        }
+        
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            assertSame(r1, router.route("/api/v2.10/users"));
+            assertSame(r2, router.route("/api/2014-06/users"));
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        
+        /* allow for the odd allocation made by the measurement itself */
+        assertTrue("allocated " + allocated + " bytes", allocated < iterations);
+    }
+    
+    @It("routes paths held in a CharSequence or in the bytes of a ByteBuffer")
+    void bytesTest1() throws Exception {
+        
+        Route r1 = new Route("/users/:id/files/*");
+        Route r2 = new Route("/users/all");
+        Route r3 = new Route("/caf\u00e9/:name");
+        router.add(r1);
+        router.add(r2);
+        router.add(r3);
+        
+        assertEquals(r2, router.route(new StringBuilder("/users/all")));
+        RouteMatch match = router.match(new StringBuilder("/users/j%20d/files/a/b"));
+        assertEquals("j d", match.getNamedParameter("id"));
+        assertEquals("a/b", match.getSplatParameter(0));
+        
+        byte[] request = "GET /users/all HTTP/1.1".getBytes("US-ASCII");
+        for (ByteBuffer buffer : new ByteBuffer[] {ByteBuffer.wrap(request), direct(request)}) {
+            
+            assertEquals(r2, router.route(buffer, 4, 10));
+            assertNull(router.route(buffer, 4, 6));
+            assertEquals(0, buffer.position());
+        }
+        
+        ByteBuffer buffer = ByteBuffer.wrap("/users/7/files/x%2Fy".getBytes("US-ASCII"));
+        match = router.match(buffer, 0, buffer.remaining());
+        assertEquals(r1, match.getRoute());
+        assertEquals("7", match.getNamedParameter("id"));
+        assertEquals("x/y", match.getSplatParameter(0));
+        
+        buffer = ByteBuffer.wrap("/caf\u00e9/j\u00f6rg".getBytes("UTF-8"));
+        match = router.match(buffer, 0, buffer.remaining());
+        assertEquals(r3, match.getRoute());
+        assertEquals("j\u00f6rg", match.getNamedParameter("name"));
+    }
+    
+    @It("does not allocate when routing static paths held in a ByteBuffer")
+    void allocationTest2() throws Exception {
+        
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)bean;
+        if (!threadBean.isThreadAllocatedMemorySupported()) return;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        
+        Route r1 = new Route("/abc/def/ghi");
+        router.add(r1);
+        router.add(new Route("/abc/:name"));
+        ByteBuffer buffer = direct("/abc/def/ghi".getBytes("US-ASCII"));
+        
+        int iterations = 100000;
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < iterations; i++) {
+            router.route(buffer, 0, buffer.limit());
+        }
+        
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            assertSame(r1, router.route(buffer, 0, buffer.limit()));
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        
+        /* allow for the odd allocation made by the measurement itself */
+        assertTrue("allocated " + allocated + " bytes", allocated < iterations);
+    }
+    
+    @It("matches tokens against a node as the node's regex would")
+    void matcherTest1() {
+        
+        String[] regexes = {null, "[0-9]+", "[a-z]+", "\\d{2,4}", "[^x]*", "[a-zA-Z_\\-]{3}", 
+                "\\w?", "[0-9]+|new", "(a)\\1"};
+        String[] tokens = {"", "1", "123", "12345", "abc", "aBc", "a-b", "x", "new", "aa", 
+                "/", "12\n", "12\r\n", "\n", "a\nb", "\u00e9t\u00e9"};
+        
+        for (String regex : regexes) {
+            TreeNode node = new TreeNode(new NamedParameterElement("p", 0, regex));
+            for (String token : tokens) {
+                assertEquals(regex + " on " + token, 
+                        node.pattern().matcher(token).find(), node.matches(token));
+            }
+        }
+        
+        TreeNode splat = new TreeNode(new SplatParameterElement(0));
+        TreeNode literal = new TreeNode(new StaticPathElement("abc", 0));
+        for (String token : tokens) {
+            assertEquals(token, splat.pattern().matcher(token).find(), splat.matches(token));
+        }
+        assertTrue(literal.matches("abc"));
+        assertFalse(literal.matches("abcd"));
+        assertFalse(literal.matches("ab"));
+    }
+    
+    @It("rejects tokens before evaluating a custom regex only when the regex would")
+    void matcherTest2() {
+        
+        String[] regexes = {"v[0-9]+(\\.[0-9]+)*", "[0-9]{4}-[0-9]{2}(-[0-9]{2})?", "(?:abc|abd)+x?", 
+                "a.c", "\\d+\\.\\w*", "[^a-c]b{2,3}?", "(x|)y", "[-a]\\-.*", "\\S\\s\\D", 
+                "([a-f]|\\d)+?", "[\\]a]+", "a{0}b", "\u00e9+t", "a|b|", "[a-z&&[^b]]+", "(?i)abc"};
+        String alphabet = "abcdefvxy0123456789.-_ \n\u00e9]";
+        Random random = new Random(11);
+        List<String> tokens = new ArrayList<String>(Arrays.asList("", "v1", "v1.2.3", "2014-06", 
+                "2014-06-01", "abcabdx", "abc", "1.a", "dbbb", "xy", "y", "-a-b", "\u00e9\u00e9t", 
+                "AbC", "v1\n", "a\r\n"));
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder token = new StringBuilder();
+            int length = random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                token.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            tokens.add(token.toString());
+        }
+        
+        for (String regex : regexes) {
+            TreeNode node = new TreeNode(new NamedParameterElement("p", 0, regex));
+            for (String token : tokens) {
+                assertEquals(regex + " on " + token, 
+                        node.pattern().matcher(token).find(), node.matches(token));
+            }
+        }
+    }
+    
+    @It("does not evaluate a custom regex for tokens it cannot match")
+    void matcherTest3() {
+        
+        RouterMetrics metrics = new RouterMetrics();
+        TreeRouter router = new TreeRouter(metrics);
+        Route version = new Route("/api/:version<v[0-9]+(\\.[0-9]+)*>/users");
+        Route date = new Route("/api/:date<[0-9]{4}-[0-9]{2}(-[0-9]{2})?>/users");
+        Route other = new Route("/api/:other/users");
+        router.add(version);
+        router.add(date);
+        router.add(other);
+        
+        assertEquals(other, router.route("/api/users/users"));
+        assertEquals(0, metrics.snapshot().getRegexEvaluations());
+        assertEquals(version, router.route("/api/v2.10/users"));
+        assertEquals(1, metrics.snapshot().getRegexEvaluations());
+        assertEquals(date, router.route("/api/2014-06-01/users"));
+        assertEquals(2, metrics.snapshot().getRegexEvaluations());
+    }
+    
+    @It("counts a supplementary character as one character when scanning a character class")
+    void matcherTest4() {
+        
+        String smiley = "\ud83d\ude00";
+        String[] regexes = {"[^-]", "[^-]{2}", "[^-]{1,2}", "[^x]+", "[a-z]", "\\w?", "[0-9]*"};
+        String[] tokens = {smiley, smiley + smiley, "a" + smiley, smiley + "a", "\ud83d", "\ude00",
+                smiley.substring(1) + smiley.substring(0, 1), "ab", "a"};
+        
+        for (String regex : regexes) {
+            TreeNode node = new TreeNode(new NamedParameterElement("p", 0, regex));
+            for (String token : tokens) {
+                assertEquals(regex + " on " + token, 
+                        node.pattern().matcher(token).find(), node.matches(token));
+            }
+        }
+        
+        Route r1 = new Route("/x/:v<[^-]>");
+        Route r2 = new Route("/y/:v<[^-]{2}>");
+        router.add(r1);
+        router.add(r2);
+        RegexRouter regexRouter = new RegexRouter();
+        regexRouter.add(r1);
+        regexRouter.add(r2);
+        for (String path : new String[] {"/x/" + smiley, "/y/" + smiley, "/y/" + smiley + smiley}) {
+            Route expected = regexRouter.route(path);
+            assertEquals(path, expected, router.route(path));
+            assertEquals(path, expected, router.freeze().route(path));
+        }
+        assertEquals(r1, router.route("/x/" + smiley));
+        assertNull(router.route("/y/" + smiley));
+    }
+    
+    @It("rejects an invalid custom regex when its route is added")
+    void matcherTest5() {
+        
+        try {
+            router.add(new Route("/y/:v<[a-z>"));
+            fail("expected a PatternSyntaxException");
+        } catch (PatternSyntaxException e) {
+            assertNull(router.route("/y/a"));
+        }
+    }
+    
+    @It("does not reject tokens with supplementary characters that a custom regex would match")
+    void matcherTest6() {
+        
+        String smiley = "\ud83d\ude00";
+        String[] regexes = {"(.)", "a.", ".{2}", "[^a]b?", "\\D", "\\W+x", "\\S?a", "(\\w|[^-])c", 
+                "x" + smiley + "?", "[" + smiley + "b]", "\u00e9.", "(?:.a)+"};
+        String[] tokens = {smiley, "a" + smiley, smiley + smiley, smiley + "b", smiley + "x", 
+                smiley + "a", smiley + "c", "x", "x" + smiley, "\u00e9" + smiley, smiley + "a" + smiley + "a",
+                "\ud83d", "a\ude00", "ab", "a"};
+        
+        for (String regex : regexes) {
+            TreeNode node = new TreeNode(new NamedParameterElement("p", 0, regex));
+            for (String token : tokens) {
+                assertEquals(regex + " on " + token, 
+                        node.pattern().matcher(token).find(), node.matches(token));
+            }
+        }
+        
+        Route r1 = new Route("/x/:v<(.)>");
+        Route r2 = new Route("/y/:v<a.>");
+        router.add(r1);
+        router.add(r2);
+        RegexRouter regexRouter = new RegexRouter();
+        regexRouter.add(r1);
+        regexRouter.add(r2);
+        for (String path : new String[] {"/x/" + smiley, "/y/a" + smiley, "/y/a" + smiley + smiley}) {
+            Route expected = regexRouter.route(path);
+            assertEquals(path, expected, router.route(path));
+            assertEquals(path, expected, router.freeze().route(path));
+        }
+        assertEquals(r1, router.route("/x/" + smiley));
+        assertEquals(r2, router.route("/y/a" + smiley));
+    }
+    
+    @It("lets a splat match the rest of the path when the elements after it do not")
+    void backtrackTest4() {
+        
+        Route r1 = new Route("/files/*/raw");
+        Route r2 = new Route("/files/*");
+        router.add(r1);
+        router.add(r2);
+        
+        for (Router router : new Router[] {this.router, this.router.freeze()}) {
+            
+            assertEquals(r1, router.route("/files/a/raw"));
+            assertEquals(r2, router.route("/files/a"));
+            
+            RouteMatch match = router.match("/files/a/b/c");
+            assertEquals(r2, match.getRoute());
+            assertEquals("a/b/c", match.getSplatParameter(0));
+        }
+    }
+    
+    @It("gives up a search after the most backtracks allowed")
+    void backtrackTest5() {
+        
+        Route r1 = new Route("/a/b/c");
+        Route r2 = new Route("/a/:x/d");
+        router.add(r1);
+        router.add(r2);
+        
+        router.setMaxBacktracks(0);
+        assertNull(router.route("/a/b/d"));
+        assertEquals(r2, router.route("/a/z/d"));
+        
+        router.setMaxBacktracks(1);
+        assertEquals(r2, router.route("/a/b/d"));
+        assertEquals(r2, router.freeze().route("/a/b/d"));
+    }
+    
+    @It("orders children by precedence whatever the order they were added in")
+    void orderTest1() {
+        
+        router.add(new Route("/:b"));
+        router.add(new Route("/zeta"));
+        router.add(new Route("/:a<[0-9]+>"));
+        router.add(new Route("/*"));
+        router.add(new Route("/alpha"));
+        router.add(new Route("/mu"));
+        
+        List<TreeNode> children = router.getRoot().getChildren();
+        assertEquals(6, children.size());
+        assertEquals("^(.*)$", children.get(0).toString());
+        assertEquals("^alpha$", children.get(1).toString());
+        assertEquals("^mu$", children.get(2).toString());
+        assertEquals("^zeta$", children.get(3).toString());
+        assertEquals("^([^/]+)$", children.get(4).toString());
+        assertEquals("^([0-9]+)$", children.get(5).toString());
+    }
+    
+    @It("adds many sibling routes")
+    void orderTest2() {
+        
+        int count = 50000;
+        Route[] routes = new Route[count];
+        for (int i = 0; i < count; i++) {
+            routes[i] = new Route("/api/resource" + i + "/:id");
+            router.add(routes[i]);
+        }
+        Route named = new Route("/api/:other");
+        router.add(named);
+        
+        for (int i = 0; i < count; i += 997) {
+            assertEquals(routes[i], router.route("/api/resource" + i + "/7"));
+        }
+        assertEquals(named, router.route("/api/resource" + count));
+        assertEquals(count + 1, router.getRoot().getChildren().get(0).getChildren().size());
+    }
+    
+    @It("builds the same tree adding routes all at once as adding each route in turn")
+    void addAllTest1() {
+        
+        List<Route> routes = randomRoutes(5000);
+        for (Route route : routes) {
+            router.add(route);
+        }
+        
+        TreeRouter sequential = new TreeRouter();
+        sequential.addAll(routes, 1);
+        assertSameTree(router.getRoot(), sequential.getRoot());
+        
+        TreeRouter parallel = new TreeRouter();
+        parallel.addAll(routes, 4);
+        assertSameTree(router.getRoot(), parallel.getRoot());
+        
+        for (Route route : routes.subList(0, 500)) {
+            String path = route.getResourcePath().replace("*", "x/y").replaceAll(":[a-z]+(<[^>]+>)?", "12");
+            assertEquals(router.route(path), parallel.route(path));
+        }
+    }
+    
+    @It("adds routes all at once to a tree that already has routes")
+    void addAllTest2() {
+        
+        List<Route> routes = randomRoutes(3000);
+        for (Route route : routes) {
+            router.add(route);
+        }
+        
+        TreeRouter merged = new TreeRouter();
+        for (Route route : routes.subList(0, 1000)) {
+            merged.add(route);
+        }
+        merged.addAll(routes.subList(1000, routes.size()), 4);
+        assertSameTree(router.getRoot(), merged.getRoot());
+        
+        merged.addAll(new ArrayList<Route>());
+        assertSameTree(router.getRoot(), merged.getRoot());
+    }
+    
+    @It("builds the same tree adding routes all at once as adding each route in turn, with blank elements")
+    void addAllTest4() {
+        
+        Route r1 = new Route("/a/b/c");
+        Route r2 = new Route("/a//b/d");
+        List<Route> routes = new ArrayList<Route>(Arrays.asList(r1, r2));
+        routes.addAll(randomRoutes(3000, new String[] {"a", "b", "", ":x", ":x<[0-9]+>", "*"}));
+        for (Route route : routes) {
+            router.add(route);
+        }
+        
+        for (int parallelism : new int[] {1, 4}) {
+            
+            TreeRouter all = new TreeRouter();
+            all.addAll(routes, parallelism);
+            assertSameTree(router.getRoot(), all.getRoot());
+            
+            for (String path : new String[] {"/a/b/c", "/a/b/d", "/a//b/d", "/a//b/c", "/a/7/b"}) {
+                assertEquals(path, router.route(path), all.route(path));
+            }
+        }
+    }
+    
+    @It("rejects a parallelism of less than one")
+    void addAllTest3() {
+        
+        try {
+            router.addAll(new ArrayList<Route>(), 0);
+            fail("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("parallelism must be positive", e.getMessage());
+        }
+    }
+    
+    @It("prunes the nodes left with no route and no children when a route is removed")
+    void removeTest4() {
+        
+        List<Route> routes = new ArrayList<Route>(new LinkedHashSet<Route>(randomRoutes(2000)));
+        List<Route> kept = routes.subList(0, routes.size() / 2);
+        for (Route route : routes) {
+            router.add(route);
+        }
+        for (Route route : routes.subList(kept.size(), routes.size())) {
+            assertTrue(router.remove(route));
+        }
+        
+        TreeRouter expected = new TreeRouter();
+        for (Route route : kept) {
+            expected.add(route);
+        }
+        assertSameTree(expected.getRoot(), router.getRoot());
+        
+        for (Route route : kept) {
+            assertTrue(router.remove(route));
+        }
+        assertFalse(router.getRoot().hasChildren());
+        assertFalse(router.getRoot().hasRoute());
+    }
+    
+    @It("removes a route added for particular methods")
+    void removeTest5() {
+        
+        Route r1 = new Route("/a/:id");
+        Route r2 = new Route("/a/:id/b");
+        router.add("GET", r1);
+        router.add("PUT", r1);
+        router.add("GET", r2);
+        
+        assertTrue(router.remove(r1));
+        assertNull(router.route("GET", "/a/1"));
+        assertNull(router.route("PUT", "/a/1"));
+        assertEquals(r2, router.route("GET", "/a/1/b"));
+        assertFalse(router.remove(r1));
+        
+        assertTrue(router.remove(r2));
+        assertFalse(router.getRoot().hasChildren());
+    }
+    
+    @It("replaces a route for each method it was added for")
+    void replaceTest3() {
+        
+        Route r1 = new Route("/a/:id");
+        Route r2 = new Route("/b/:id");
+        Route r3 = new Route("/a/:id");
+        router.add("GET", r1);
+        router.add("PUT", r1);
+        
+        assertTrue(router.replace(r1, r2));
+        assertEquals(r2, router.route("GET", "/b/1"));
+        assertEquals(r2, router.route("PUT", "/b/1"));
+        assertNull(router.route("POST", "/b/1"));
+        assertNull(router.route("GET", "/a/1"));
+        assertEquals(1, router.getRoot().getChildren().size());
+        
+        /* an equal replacement takes the place of the route on the same node */
+        router.add(r1);
+        assertTrue(router.replace(r1, r3));
+        assertSame(r3, router.route("/a/1"));
+        assertEquals(2, router.getRoot().getChildren().size());
+    }
+    
+    @It("rejects a null replacement")
+    void replaceTest4() {
+        
+        router.add(new Route("/a"));
+        try {
+            router.replace(new Route("/a"), null);
+            fail("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("replacement cannot be null", e.getMessage());
+        }
+    }
+    
+    @It("keeps equally named static segments that follow a blank segment apart; case 1")
+    void blankSegmentTest1() {
+        
+        Route r1 = new Route("/a/b/c");
+        Route r2 = new Route("/a//b");
+        router.add(r1);
+        router.add(r2);
+        
+        assertEquals(r1, router.route("/a/b/c"));
+        assertEquals(r2, router.route("/a/b"));
+        
+        assertTrue(router.remove(r1));
+        assertNull(router.route("/a/b/c"));
+        assertEquals(r2, router.route("/a/b"));
+        
+        TreeRouter all = new TreeRouter();
+        all.addAll(Arrays.asList(r1, r2));
+        assertEquals(r1, all.route("/a/b/c"));
+        assertEquals(r2, all.route("/a/b"));
+    }
+    
+    @It("keeps equally named static segments that follow a blank segment apart; case 2")
+    void blankSegmentTest2() {
+        
+        Route r1 = new Route("/a//b");
+        Route r2 = new Route("/a/b/c");
+        Route r3 = new Route("/a/b/:id");
+        router.add(r1);
+        router.add(r2);
+        router.add(r3);
+        
+        assertEquals(r1, router.route("/a/b"));
+        assertEquals(r2, router.route("/a/b/c"));
+        assertEquals(r3, router.route("/a/b/d"));
+        
+        assertTrue(router.remove(r1));
+        assertNull(router.route("/a/b"));
+        assertEquals(r2, router.route("/a/b/c"));
+        assertEquals(r3, router.route("/a/b/d"));
+    }
+    
+    private static List<Route> randomRoutes(int count) {
+        
+        return randomRoutes(count, new String[] {"a", "b", "c", "d", ":x", ":y", ":x<[0-9]+>", ":y<[a-z]+>", "*"});
+    }
+    
+    private static List<Route> randomRoutes(int count, String[] elements) {
+        
+        Random random = new Random(7);
+        List<Route> routes = new ArrayList<Route>(count);
+        routes.add(new Route("/"));
+        while (routes.size() < count) {
+            StringBuilder path = new StringBuilder();
+            int length = 1 + random.nextInt(4);
+            for (int i = 0; i < length; i++) {
+                path.append('/').append(elements[random.nextInt(elements.length)]);
+            }
+            if (random.nextInt(4) == 0) path.append('/');
+            routes.add(new Route(path.toString()));
+        }
+        return routes;
+    }
+    
+    private static void assertSameTree(TreeNode expected, TreeNode actual) {
+        
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(expected.getPathElement(), actual.getPathElement());
+        assertSame(expected.getRoute(), actual.getRoute());
+        List<TreeNode> expectedChildren = expected.getChildren();
+        List<TreeNode> actualChildren = actual.getChildren();
+        assertEquals(expectedChildren.size(), actualChildren.size());
+        for (int i = 0; i < expectedChildren.size(); i++) {
+            assertSameTree(expectedChildren.get(i), actualChildren.get(i));
+        }
+    }
+    
+    private static ByteBuffer direct(byte[] bytes) {
+        
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.bigtesting.It;
+import org.bigtesting.ItRunner;
+import org.bigtesting.routd.Route;
+import org.bigtesting.routd.TreeNode;
+import org.bigtesting.routd.TreeRouter;
+import org.junit.runner.RunWith;
+
+@RunWith(ItRunner.class)
+public class TestTreeRouterConcurrency {
+
+    private static final int READERS = 8;
+    private static final int WRITERS = 4;
+    private static final int ROUTES_PER_WRITER = 500;
+    private static final int CHURN_GENERATIONS = 200;
+
+    @It("routes correctly while routes are concurrently being added")
+    void concurrencyTest1() throws Exception {
+
+        final TreeRouter router = new TreeRouter();
+        final Route fixed = new Route("/shared/fixed");
+        final Route named = new Route("/shared/:name");
+        final Route splat = new Route("/shared/*/end");
+        router.add(fixed);
+        router.add(named);
+        router.add(splat);
+
+        /* the number of routes each writer has added so far */
+        final AtomicIntegerArray added = new AtomicIntegerArray(WRITERS);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final Queue<String> failures = new ConcurrentLinkedQueue<String>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch writersDone = new CountDownLatch(WRITERS);
+        final CountDownLatch readersDone = new CountDownLatch(READERS);
+
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < ROUTES_PER_WRITER; i++) {
+                            router.add(new Route(staticPath(writer, i)));
+                            router.add(new Route(deepPath(writer, i) + "/:id<[0-9]+>"));
+                            added.set(writer, i + 1);
+                        }
+                    } catch (Throwable t) {
+                        failures.add("writer failed: " + t);
+                    } finally {
+                        writersDone.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        for (int r = 0; r < READERS; r++) {
+            final int reader = r;
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        int i = 0;
+                        do {
+                            i++;
+                            check(fixed, router.route("/shared/fixed"));
+                            check(named, router.route("/shared/zzz"));
+                            check(splat, router.route("/shared/zzz/end"));
+
+                            int writer = (reader + i) % WRITERS;
+                            int count = added.get(writer);
+                            if (count > 0) {
+                                int n = i % count;
+                                check(new Route(staticPath(writer, n)),
+                                        router.route(staticPath(writer, n)));
+                                check(new Route(deepPath(writer, n) + "/:id<[0-9]+>"),
+                                        router.route(deepPath(writer, n) + "/123"));
+                            }
+                        } while (writing.get() && failures.isEmpty());
+                    } catch (Throwable t) {
+                        failures.add("reader failed: " + t);
+                    } finally {
+                        readersDone.countDown();
+                    }
+                }
+
+                private void check(Route expected, Route actual) {
+                    if (!expected.equals(actual)) {
+                        failures.add("expected " + expected + " but was " + actual);
+                    }
+                }
+            }.start();
+        }
+
+        start.countDown();
+        writersDone.await();
+        writing.set(false);
+        readersDone.await();
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        for (int w = 0; w < WRITERS; w++) {
+            for (int i = 0; i < ROUTES_PER_WRITER; i++) {
+                assertEquals(new Route(staticPath(w, i)), router.route(staticPath(w, i)));
+            }
+        }
+    }
+
+    @It("stays the same size while routes are constantly added, replaced, and removed")
+    void churnTest1() throws Exception {
+        
+        final TreeRouter router = new TreeRouter();
+        final Route fixed = new Route("/shared/fixed");
+        final Route named = new Route("/shared/:name");
+        final Route flag = new Route("/flag/:id");
+        final Route greenFlag = new Route("/flag/:id<[0-9]+>");
+        router.add(fixed);
+        router.add(named);
+        router.add(flag);
+        final int nodes = countNodes(router.getRoot());
+        
+        final AtomicBoolean churning = new AtomicBoolean(true);
+        final Queue<String> failures = new ConcurrentLinkedQueue<String>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch writersDone = new CountDownLatch(WRITERS);
+        final CountDownLatch readersDone = new CountDownLatch(READERS);
+        
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int generation = 0; generation < CHURN_GENERATIONS; generation++) {
+                            List<Route> routes = new ArrayList<Route>();
+                            for (int i = 0; i < 50; i++) {
+                                routes.add(new Route(staticPath(writer, generation * 50 + i)));
+                                routes.add(new Route(deepPath(writer, generation * 50 + i) + "/:id<[0-9]+>"));
+                            }
+                            for (Route route : routes) {
+                                router.add(route);
+                            }
+                            if (writer == 0) {
+                                router.replace(flag, greenFlag);
+                                router.replace(greenFlag, flag);
+                            }
+                            for (Route route : routes) {
+                                if (!router.remove(route)) failures.add("not removed: " + route);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failures.add("writer failed: " + t);
+                    } finally {
+                        writersDone.countDown();
+                    }
+                }
+            }.start();
+        }
+        
+        for (int r = 0; r < READERS; r++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        do {
+                            check(fixed, router.route("/shared/fixed"));
+                            check(named, router.route("/shared/zzz"));
+                            Route route = router.route("/flag/123");
+                            if (!flag.equals(route) && !greenFlag.equals(route)) {
+                                failures.add("expected a flag route but was " + route);
+                            }
+                        } while (churning.get() && failures.isEmpty());
+                    } catch (Throwable t) {
+                        failures.add("reader failed: " + t);
+                    } finally {
+                        readersDone.countDown();
+                    }
+                }
+                
+                private void check(Route expected, Route actual) {
+                    if (!expected.equals(actual)) {
+                        failures.add("expected " + expected + " but was " + actual);
+                    }
+                }
+            }.start();
+        }
+        
+        start.countDown();
+        writersDone.await();
+        churning.set(false);
+        readersDone.await();
+        
+        assertTrue(failures.toString(), failures.isEmpty());
+        /* every node added during the churn has been pruned */
+        assertEquals(nodes, countNodes(router.getRoot()));
+        assertEquals(flag, router.route("/flag/abc"));
+        assertEquals(named, router.route(staticPath(0, 0)));
+    }
+    
+    private static int countNodes(TreeNode node) {
+        
+        int count = 1;
+        for (TreeNode child : node.getChildren()) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+    
+    private static String staticPath(int writer, int i) {
+        return "/shared/w" + writer + "_" + i;
+    }
+
+    private static String deepPath(int writer, int i) {
+        return "/deep/w" + writer + "/" + (i % 10) + "/" + i;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.routd.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bigtesting.It;
+import org.bigtesting.ItRunner;
+import org.bigtesting.routd.Route;
+import org.bigtesting.routd.RouterMetrics;
+import org.bigtesting.routd.VersionedRouter;
+import org.junit.runner.RunWith;
+
+@RunWith(ItRunner.class)
+public class TestVersionedRouter extends RouterContractTest<VersionedRouter> {
+    
+    private static final int READERS = 4;
+    
+    protected VersionedRouter newRouter() {
+        return new VersionedRouter();
+    }
+    
+    @It("replaces the whole route table when it is reloaded")
+    void reloadTest1() {
+        
+        Route r1 = new Route("/a/:id");
+        Route r2 = new Route("/b/:id");
+        Route r3 = new Route("/b/all");
+        assertEquals(0, router.getVersion());
+        assertNull(router.route("/a/1"));
+        
+        router.add(r1);
+        assertEquals(1, router.getVersion());
+        
+        assertEquals(2, router.reload(Arrays.asList(r2, r3)));
+        assertEquals(2, router.getVersion());
+        assertEquals(Arrays.asList(r2, r3), router.getRoutes());
+        assertNull(router.route("/a/1"));
+        assertEquals(r2, router.route("/b/1"));
+        assertEquals(r3, router.route("/b/all"));
+        assertEquals("1", router.match("/b/1").getNamedParameter("id"));
+    }
+    
+    @It("publishes a table built in the background once it is built")
+    void reloadTest2() throws Exception {
+        
+        Route r1 = new Route("/a/:id");
+        Future<Long> reload = router.reloadAsync(Arrays.asList(r1));
+        
+        assertEquals(Long.valueOf(1), reload.get());
+        assertEquals(1, router.getVersion());
+        assertEquals(r1, router.route("/a/1"));
+    }
+    
+    @It("publishes tables built in the background in the order they were asked for")
+    void reloadTest3() throws Exception {
+        
+        List<Future<Long>> reloads = new ArrayList<Future<Long>>();
+        List<Route> routes = new ArrayList<Route>();
+        for (int i = 0; i < 10; i++) {
+            routes.add(new Route("/r" + i + "/:id"));
+            reloads.add(router.reloadAsync(routes));
+        }
+        
+        for (int i = 0; i < reloads.size(); i++) {
+            assertEquals(Long.valueOf(i + 1), reloads.get(i).get());
+        }
+        assertEquals(10, router.getVersion());
+        assertEquals(routes, router.getRoutes());
+    }
+    
+    @It("never lets a lookup see a table without its routes while tables are reloaded")
+    void reloadTest4() throws Exception {
+        
+        final List<Route> blue = tableOf("blue", 2000);
+        final List<Route> green = tableOf("green", 2000);
+        router.reload(blue);
+        
+        final AtomicBoolean reloading = new AtomicBoolean(true);
+        final Queue<String> failures = new ConcurrentLinkedQueue<String>();
+        final CountDownLatch readersDone = new CountDownLatch(READERS);
+        for (int r = 0; r < READERS; r++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        long version = 0;
+                        int i = 0;
+                        do {
+                            i++;
+                            long current = router.getVersion();
+                            if (current < version) {
+                                failures.add("version went from " + version + " to " + current);
+                            }
+                            version = current;
+                            Route route = router.route("/shared/" + (i % 2000) + "/1");
+                            if (route == null) failures.add("no route for /shared/" + (i % 2000) + "/1");
+                        } while (reloading.get() && failures.isEmpty());
+                    } catch (Throwable t) {
+                        failures.add("reader failed: " + t);
+                    } finally {
+                        readersDone.countDown();
+                    }
+                }
+            }.start();
+        }
+        
+        for (int i = 0; i < 20; i++) {
+            router.reload(i % 2 == 0 ? green : blue);
+        }
+        reloading.set(false);
+        readersDone.await();
+        
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(21, router.getVersion());
+        assertEquals(blue.get(0), router.route("/shared/0/1"));
+    }
+    
+    @It("records the version, size, and build time of each table it publishes")
+    void reloadTest5() throws Exception {
+        
+        RouterMetrics metrics = new RouterMetrics();
+        VersionedRouter router = new VersionedRouter(metrics);
+        router.reload(tableOf("blue", 100));
+        router.reloadAsync(tableOf("green", 50)).get();
+        
+        RouterMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getReloadCount());
+        assertEquals(2, snapshot.getActiveVersion());
+        assertEquals(50, snapshot.getActiveRouteCount());
+        assertTrue(snapshot.getLastBuildNanos() > 0);
+        
+        metrics.reset();
+        snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.getReloadCount());
+        assertEquals(2, snapshot.getActiveVersion());
+    }
+    
+    @It("rejects a null route table")
+    void reloadTest6() {
+        
+        try {
+            router.reload(null);
+            fail("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("routes cannot be null", e.getMessage());
+        }
+    }
+    
+    @It("publishes a reload or a change only after the reloads asked for before it")
+    void reloadTest7() throws Exception {
+        
+        List<Route> large = tableOf("large", 2000);
+        Route b = new Route("/b");
+        Route c = new Route("/c");
+        for (int i = 0; i < 50; i++) {
+            
+            VersionedRouter router = new VersionedRouter();
+            router.reloadAsync(large);
+            assertEquals(2, router.reload(Arrays.asList(b)));
+            assertEquals(Arrays.asList(b), router.getRoutes());
+            
+            router.reloadAsync(large);
+            router.add(c);
+            assertEquals(4, router.getVersion());
+            assertEquals(c, router.getRoutes().get(large.size()));
+            assertEquals(c, router.route("/c"));
+            
+            router.reloadAsync(Arrays.asList(b));
+            assertTrue(router.remove(b));
+            assertEquals(6, router.getVersion());
+            assertTrue(router.getRoutes().isEmpty());
+        }
+    }
+    
+    /*
+     * a table whose routes all match the same paths, with a 
+     * custom regex that differs from that of any other table
+     */
+    private static List<Route> tableOf(String name, int count) {
+        
+        List<Route> routes = new ArrayList<Route>(count);
+        for (int i = 0; i < count; i++) {
+            routes.add(new Route("/shared/" + i + "/:" + name + "<[0-9]+>"));
+        }
+        return routes;
+    }
+}